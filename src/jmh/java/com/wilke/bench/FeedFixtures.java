@@ -0,0 +1,126 @@
+package com.wilke.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic nyaa-style RSS 2.0 feeds and feed aggregate configurations for benchmarks.
+ */
+public final class FeedFixtures {
+
+	/**
+	 * Feed sizes: a quiet search, a nyaa page of the usual size and a large one.
+	 */
+	public static final int SMALL = 5;
+	public static final int MEDIUM = 100;
+	public static final int LARGE = 1000;
+
+	private static final String[] GROUPS = { "HorribleSubs", "Erai-raws", "SubsPlease", "Judas" };
+	private static final String[] SHOWS = { "Sword Art Online II", "Mushishi", "Shingeki no Kyojin", "Mononoke", "Haikyuu!!" };
+
+	private FeedFixtures() {}
+
+	/**
+	 * @param seed feeds of the same seed and size are identical
+	 */
+	public static byte[] feed(final int items, final long seed) {
+		final Random random = new Random(seed);
+		final ZonedDateTime start = ZonedDateTime.of(2026, 10, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+		final StringBuilder xml = new StringBuilder(512 + items * 900);
+
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+				.append("<rss xmlns:atom=\"http://www.w3.org/2005/Atom\" xmlns:nyaa=\"https://nyaa.si/xmlns/nyaa\" version=\"2.0\">\n")
+				.append("\t<channel>\n")
+				.append("\t\t<title>Nyaa - Home - Torrent File RSS</title>\n")
+				.append("\t\t<description>RSS Feed for Home</description>\n")
+				.append("\t\t<link>https://nyaa.si/</link>\n")
+				.append("\t\t<atom:link href=\"https://nyaa.si/?page=rss\" rel=\"self\" type=\"application/rss+xml\" />\n");
+
+		for (int idx = 0; idx < items; idx++) {
+			final int id = 1_000_000 + (int) (seed % 1000) * 10_000 + idx;
+			final String title = "[" + GROUPS[random.nextInt(GROUPS.length)] + "] " + SHOWS[random.nextInt(SHOWS.length)]
+					+ " - " + (random.nextInt(24) + 1) + " [720p].mkv";
+			final String pubDate = start.minusHours(idx * 3L + random.nextInt(3)).format(DateTimeFormatter.RFC_1123_DATE_TIME);
+
+			xml.append("\t\t<item>\n")
+					.append("\t\t\t<title>").append(title.replace("&", "&amp;")).append("</title>\n")
+					.append("\t\t\t<link>https://nyaa.si/download/").append(id).append(".torrent</link>\n")
+					.append("\t\t\t<guid isPermaLink=\"true\">https://nyaa.si/view/").append(id).append("</guid>\n")
+					.append("\t\t\t<pubDate>").append(pubDate).append("</pubDate>\n")
+					.append("\t\t\t<nyaa:seeders>").append(random.nextInt(500)).append("</nyaa:seeders>\n")
+					.append("\t\t\t<nyaa:leechers>").append(random.nextInt(50)).append("</nyaa:leechers>\n")
+					.append("\t\t\t<nyaa:downloads>").append(random.nextInt(10_000)).append("</nyaa:downloads>\n")
+					.append("\t\t\t<nyaa:infoHash>").append(Long.toHexString(random.nextLong())).append(Long.toHexString(random.nextLong())).append("</nyaa:infoHash>\n")
+					.append("\t\t\t<nyaa:categoryId>1_2</nyaa:categoryId>\n")
+					.append("\t\t\t<category>Anime - English-translated</category>\n")
+					.append("\t\t\t<nyaa:size>").append(random.nextInt(1500) + 100).append(" MiB</nyaa:size>\n")
+					.append("\t\t\t<nyaa:comments>").append(random.nextInt(20)).append("</nyaa:comments>\n")
+					.append("\t\t\t<nyaa:trusted>No</nyaa:trusted>\n")
+					.append("\t\t\t<nyaa:remake>No</nyaa:remake>\n")
+					.append("\t\t\t<description><![CDATA[<a href=\"https://nyaa.si/view/").append(id).append("\">#").append(id)
+					.append(" | ").append(title).append("</a> | ").append(random.nextInt(1500) + 100).append(" MiB | Anime - English-translated | ")
+					.append(Long.toHexString(random.nextLong())).append("]]></description>\n")
+					.append("\t\t</item>\n");
+		}
+
+		xml.append("\t</channel>\n</rss>\n");
+		return xml.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return feeds of an aggregate of the given number of URLs, each of distinct items
+	 */
+	public static List<byte[]> aggregate(final int urls, final int items) {
+		final List<byte[]> feeds = new ArrayList<>(urls);
+		for (int idx = 0; idx < urls; idx++)
+			feeds.add(feed(items, idx + 1L));
+		return feeds;
+	}
+
+	/**
+	 * Writes the given number of aggregate configurations (json files as read by JsonStore) into the given directory,
+	 * named and identified "feed-&lt;number&gt;", spread over subdirectories of 1000 files each.
+	 *
+	 * @param urls number of URLs per aggregate
+	 */
+	public static void writeAggregates(final Path directory, final int count, final int urls) throws IOException {
+		for (int idx = 0; idx < count; idx++) {
+			final StringBuilder json = new StringBuilder(128 + urls * 64)
+					.append("{\n\t\"identifier\": \"feed-").append(idx).append("\",\n")
+					.append("\t\"title\": \"Feed ").append(idx).append("\",\n")
+					.append("\t\"description\": \"Synthetic aggregate ").append(idx).append("\",\n")
+					.append("\t\"urls\": [");
+			for (int url = 0; url < urls; url++)
+				json.append(url == 0 ? "\n\t\t" : ",\n\t\t")
+						.append("\"https://nyaa.si/?page=rss&q=show+").append((idx * 7 + url) % 5000).append('"');
+			json.append("\n\t]\n}\n");
+
+			final Path subdirectory = Files.createDirectories(directory.resolve(String.format("%03d", idx / 1000)));
+			Files.write(subdirectory.resolve("feed-" + idx + ".json"), json.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Deletes the given directory and everything within.
+	 */
+	public static void delete(final Path directory) throws IOException {
+		if (!Files.exists(directory))
+			return;
+
+		try (Stream<Path> paths = Files.walk(directory)) {
+			final List<Path> all = new ArrayList<>();
+			paths.forEach(all::add);
+			for (int idx = all.size() - 1; idx >= 0; idx--) // children first
+				Files.delete(all.get(idx));
+		}
+	}
+}
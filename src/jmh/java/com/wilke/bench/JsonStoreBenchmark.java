@@ -0,0 +1,100 @@
+package com.wilke.bench;
+
+import com.wilke.feed.FeedAggregate;
+import com.wilke.storage.JsonStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Initial scans of a store of many aggregate configurations ("coldScan"), full rescans of the unchanged tree
+ * ("scan") and lookups of aggregates by three threads while a fourth one keeps rescanning ("reload").
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonStoreBenchmark {
+
+	@Param({ "10000" })
+	public int files;
+
+	@Param({ "5" })
+	public int urls;
+
+	private Path directory;
+	private JsonStore store;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("catnapper-bench");
+		FeedFixtures.writeAggregates(this.directory, this.files, this.urls);
+
+		this.store = new JsonStore(this.directory.toString());
+		this.store.scheduleFileScanNow();
+		if (this.store.getAggregates().size() != this.files)
+			throw new IllegalStateException("store incomplete: " + this.store.getAggregates().size());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		this.store.close();
+		FeedFixtures.delete(this.directory);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 10)
+	public int coldScan() {
+		try (JsonStore store = new JsonStore(this.directory.toString())) {
+			store.scheduleFileScanNow();
+			return store.getAggregates().size();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 10)
+	public int scan() {
+		this.store.scheduleFileScanNow();
+		return this.store.getAggregates().size();
+	}
+
+	@Benchmark
+	@Group("reload")
+	@GroupThreads(3)
+	public FeedAggregate lookup() {
+		return this.store.getAggregate("feed-" + ThreadLocalRandom.current().nextInt(this.files));
+	}
+
+	@Benchmark
+	@Group("reload")
+	@GroupThreads(1)
+	public void rescan() {
+		this.store.scheduleFileScanNow();
+	}
+}
@@ -0,0 +1,66 @@
+package com.wilke.bench;
+
+import com.wilke.feed.rss.RssFeed;
+import com.wilke.feed.rss.RssParser;
+import com.wilke.feed.rss.RssProjection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a large nyaa feed: every field ("all"), the fields shown by combined feeds ("shown")
+ * and those fields of the newest 100 items only ("newest").
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProjectionBenchmark {
+
+	@Param({ "all", "shown", "newest" })
+	public String projection;
+
+	@Param({ "1000", "5000" })
+	public int items;
+
+	private byte[] document;
+	private RssProjection rssProjection;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.document = FeedFixtures.feed(this.items, 1L);
+
+		final EnumSet<RssProjection.Field> shown = EnumSet.complementOf(EnumSet.of(RssProjection.Field.DESCRIPTION));
+		switch (this.projection) {
+			case "shown":
+				this.rssProjection = new RssProjection(shown, 0, 0L);
+				break;
+			case "newest":
+				this.rssProjection = new RssProjection(shown, 100, 0L);
+				break;
+			default:
+				this.rssProjection = RssProjection.ALL;
+		}
+	}
+
+	@Benchmark
+	public RssFeed parse() throws XMLStreamException {
+		return RssParser.parseFeed(new ByteArrayInputStream(this.document), this.rssProjection);
+	}
+}
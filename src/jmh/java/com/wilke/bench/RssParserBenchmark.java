@@ -0,0 +1,47 @@
+package com.wilke.bench;
+
+import com.wilke.feed.rss.RssFeed;
+import com.wilke.feed.rss.RssParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of parsing a complete upstream feed of small, usual and large size (see {@link FeedFixtures}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RssParserBenchmark {
+
+	@Param({ "" + FeedFixtures.SMALL, "" + FeedFixtures.MEDIUM, "" + FeedFixtures.LARGE })
+	public int items;
+
+	private byte[] document;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.document = FeedFixtures.feed(this.items, 1L);
+	}
+
+	@Benchmark
+	public RssFeed parseFeed() throws XMLStreamException {
+		return RssParser.parseFeed(new ByteArrayInputStream(this.document));
+	}
+}
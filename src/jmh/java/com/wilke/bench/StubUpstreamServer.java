@@ -0,0 +1,168 @@
+package com.wilke.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wilke.util.DaemonThreadFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for an upstream RSS server, serving synthetic feeds below {@code /rss/{items}/{seed}}.
+ * Supports gzip, ETag based conditional requests and keep-alive. A {@link Behavior} adds latency,
+ * server errors and redirects.
+ */
+public final class StubUpstreamServer implements Closeable {
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool(DaemonThreadFactory.INSTANCE); // latency must not queue requests
+	private final Behavior behavior;
+
+	// maps path to identity and gzip representation
+	private final Map<String, byte[][]> feeds = new ConcurrentHashMap<>();
+
+	static {
+		// small responses would otherwise be delayed by Nagle's algorithm and delayed ACKs
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	public StubUpstreamServer() throws IOException {
+		this(Behavior.NONE);
+	}
+
+	public StubUpstreamServer(final Behavior behavior) throws IOException {
+		this.behavior = behavior;
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+		this.server.createContext("/rss/", this::handle);
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+
+	/**
+	 * @return URL of a feed with the given number of items
+	 */
+	public String url(final int items, final long seed) {
+		return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/rss/" + items + "/" + seed;
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		try {
+			final String path = exchange.getRequestURI().getPath();
+			final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+			final long latency = this.behavior.latency(random);
+			if (latency > 0L)
+				Thread.sleep(latency);
+
+			if (random.nextDouble() < this.behavior.errorRate) {
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+
+			if (exchange.getRequestURI().getQuery() == null && random.nextDouble() < this.behavior.redirectRate) {
+				exchange.getResponseHeaders().set("Location", path + "?redirected");
+				exchange.sendResponseHeaders(302, -1);
+				return;
+			}
+
+			final byte[][] feed = this.feeds.computeIfAbsent(path, StubUpstreamServer::render);
+			final String etag = "\"" + Integer.toHexString(path.hashCode()) + "\"";
+
+			exchange.getResponseHeaders().set("Content-Type", "application/rss+xml; charset=utf-8");
+			exchange.getResponseHeaders().set("ETag", etag);
+
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+
+			final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			final boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+			final byte[] body = gzip ? feed[1] : feed[0];
+			if (gzip)
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream stream = exchange.getResponseBody()) {
+				stream.write(body);
+			}
+		} catch (final RuntimeException e) {
+			exchange.sendResponseHeaders(404, -1);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt(); // closing
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static byte[][] render(final String path) {
+		final String[] segments = path.split("/"); // "", "rss", items, seed
+		final byte[] content = FeedFixtures.feed(Integer.parseInt(segments[2]), Long.parseLong(segments[3]));
+
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (GZIPOutputStream stream = new GZIPOutputStream(buffer)) {
+			stream.write(content);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return new byte[][] { content, buffer.toByteArray() };
+	}
+
+	/**
+	 * How the server misbehaves: log-normally distributed latency, a rate of server errors (503)
+	 * and a rate of redirects (302, to the same feed).
+	 */
+	public static final class Behavior {
+		public static final Behavior NONE = new Behavior(0L, 0L, 0d, 0d);
+
+		private static final double Z_99 = 2.326d; // standard normal quantile of 0.99
+
+		final long medianLatency;
+		final double sigma;
+		final double errorRate;
+		final double redirectRate;
+
+		/**
+		 * @param medianLatency in milliseconds, 0 for none
+		 * @param p99Latency in milliseconds, at least the median
+		 * @param errorRate fraction of requests answered by a server error
+		 * @param redirectRate fraction of requests redirected
+		 */
+		public Behavior(final long medianLatency, final long p99Latency, final double errorRate, final double redirectRate) {
+			this.medianLatency = medianLatency;
+			this.sigma = medianLatency > 0L && p99Latency > medianLatency ? Math.log((double) p99Latency / medianLatency) / Z_99 : 0d;
+			this.errorRate = errorRate;
+			this.redirectRate = redirectRate;
+		}
+
+		long latency(final ThreadLocalRandom random) {
+			if (this.medianLatency <= 0L)
+				return 0L;
+			return Math.round(this.medianLatency * Math.exp(this.sigma * random.nextGaussian()));
+		}
+
+		@Override
+		public String toString() {
+			return String.format("latency median %d ms (sigma %.2f), errors %.1f%%, redirects %.1f%%",
+					this.medianLatency, this.sigma, this.errorRate * 100d, this.redirectRate * 100d);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.wilke.bench;
+
+import com.wilke.feed.rss.RssFeed;
+import com.wilke.feed.rss.RssParser;
+import com.wilke.http.UpstreamClient;
+import com.wilke.http.UpstreamClients;
+import com.wilke.http.UpstreamRequest;
+import com.wilke.http.UpstreamResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of fetching and parsing a single upstream feed from a local stub server:
+ * the former per-request HttpURLConnection ("legacy") against the pooled upstream clients.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class UpstreamClientBenchmark {
+
+	@Param({ "legacy", UpstreamClients.URL_CONNECTION, UpstreamClients.HTTP_CLIENT })
+	public String client;
+
+	@Param({ "100" })
+	public int items;
+
+	private StubUpstreamServer server;
+	private UpstreamClient upstreamClient;
+	private String url;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.server = new StubUpstreamServer();
+		this.url = this.server.url(this.items, 1L);
+		if (!"legacy".equals(this.client))
+			this.upstreamClient = UpstreamClients.create(this.client, 5000, 5000, 8);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (this.upstreamClient != null)
+			this.upstreamClient.close();
+		this.server.close();
+	}
+
+	@Benchmark
+	public RssFeed fetch() throws IOException, XMLStreamException {
+		if (this.upstreamClient == null)
+			return legacyFetch(this.url);
+
+		try (UpstreamResponse response = this.upstreamClient.get(new UpstreamRequest(this.url))) {
+			return RssParser.parseFeed(response.body());
+		}
+	}
+
+	/**
+	 * Fetch as done before the upstream client was introduced.
+	 */
+	private static RssFeed legacyFetch(final String target) throws IOException, XMLStreamException {
+		final HttpURLConnection conn = (HttpURLConnection) new URL(target).openConnection();
+		conn.setInstanceFollowRedirects(Boolean.TRUE);
+		conn.setUseCaches(Boolean.FALSE);
+		conn.setConnectTimeout(5000);
+		conn.setReadTimeout(5000);
+		conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 6.3; WOW64; Trident/7.0; rv:11.0) like Gecko");
+		conn.setRequestProperty("Accept", "application/rss+xml, application/xhtml+xml, text/xml");
+		conn.setRequestProperty("Accept-Charset", "UTF-8");
+		conn.setRequestProperty("Accept-Encoding", "identity");
+		conn.connect();
+
+		try (InputStream stream = conn.getInputStream()) {
+			return RssParser.parseFeed(stream);
+		}
+	}
+}
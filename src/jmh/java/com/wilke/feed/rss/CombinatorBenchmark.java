@@ -0,0 +1,61 @@
+package com.wilke.feed.rss;
+
+import com.wilke.bench.FeedFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combining the fetched feeds of aggregates of 1 to 200 URLs (merge and serialization, as done by
+ * {@link RssCombinator#aggregateFeed}), without any cache of encoded items.
+ * Lives in the package of the combinator to reach its package-private API.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CombinatorBenchmark {
+
+	@Param({ "1", "10", "50", "200" })
+	public int urls;
+
+	@Param({ "" + FeedFixtures.MEDIUM })
+	public int items;
+
+	@Param({ "100", "0" })
+	public int maxItems;
+
+	private final List<RssFeed> feeds = new ArrayList<>();
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream(1 << 20);
+
+	@Setup(Level.Trial)
+	public void setUp() throws XMLStreamException {
+		for (final byte[] document : FeedFixtures.aggregate(this.urls, this.items))
+			this.feeds.add(RssParser.parseFeed(new ByteArrayInputStream(document)));
+	}
+
+	@Benchmark
+	public int aggregateFeed() throws XMLStreamException {
+		this.output.reset();
+		RssCombinator.writeFeed(this.output, new CombinedFeed(this.feeds, "title", "description", "https://example.org/", 0, this.maxItems));
+		return this.output.size();
+	}
+}
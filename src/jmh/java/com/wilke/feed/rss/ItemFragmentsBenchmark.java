@@ -0,0 +1,64 @@
+package com.wilke.feed.rss;
+
+import com.wilke.bench.FeedFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a new combination of unchanged feeds, encoding every item ("encode") against reusing
+ * the encoded items of previous combinations ("cached").
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ItemFragmentsBenchmark {
+
+	@Param({ "encode", "cached" })
+	public String mode;
+
+	@Param({ "75", "1000" })
+	public int items;
+
+	@Param({ "4" })
+	public int feeds;
+
+	private final List<RssFeed> parsed = new ArrayList<>();
+	private RssItemFragments fragments;
+
+	@Setup(Level.Trial)
+	public void setUp() throws XMLStreamException {
+		for (int idx = 0; idx < this.feeds; idx++)
+			this.parsed.add(RssParser.parseFeed(new ByteArrayInputStream(FeedFixtures.feed(this.items, idx + 1L))));
+		if ("cached".equals(this.mode))
+			this.fragments = new RssItemFragments(64L * 1024L * 1024L);
+	}
+
+	@Benchmark
+	public int render() throws XMLStreamException {
+		final ByteBuffer[] parts = RssCombinator.render(new CombinedFeed(this.parsed, "title", "description", "https://example.org/", 0, 0), this.fragments);
+		int length = 0;
+		for (final ByteBuffer part : parts)
+			length += part.remaining();
+		return length;
+	}
+}
@@ -0,0 +1,87 @@
+package com.wilke.feed.rss;
+
+import com.wilke.bench.FeedFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing upstream feeds and writing the combined feed, field by field ("fields") against copying
+ * the upstream items as is ("passthrough"). The write benchmarks start from already parsed feeds.
+ * Lives in the package of the combinator to reach its package-private API.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PassthroughBenchmark {
+
+	@Param({ "fields", "passthrough" })
+	public String mode;
+
+	@Param({ "75", "1000" })
+	public int items;
+
+	@Param({ "4" })
+	public int feeds;
+
+	private final List<byte[]> documents = new ArrayList<>();
+	private final List<RssFeed> parsed = new ArrayList<>();
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream(1 << 20);
+
+	@Setup(Level.Trial)
+	public void setUp() throws XMLStreamException {
+		for (int idx = 0; idx < this.feeds; idx++) {
+			final byte[] document = FeedFixtures.feed(this.items, idx + 1L);
+			this.documents.add(document);
+			this.parsed.add(this.parse(document));
+		}
+	}
+
+	@Benchmark
+	public RssFeed parse() throws XMLStreamException {
+		return this.parse(this.documents.get(0));
+	}
+
+	@Benchmark
+	public int write() throws XMLStreamException {
+		this.output.reset();
+		RssCombinator.writeFeed(this.output, new CombinedFeed(this.parsed, "title", "description", "https://example.org/", 0, 0));
+		return this.output.size();
+	}
+
+	@Benchmark
+	public int parseAndWrite() throws XMLStreamException {
+		final List<RssFeed> feeds = new ArrayList<>(this.documents.size());
+		for (final byte[] document : this.documents)
+			feeds.add(this.parse(document));
+
+		this.output.reset();
+		RssCombinator.writeFeed(this.output, new CombinedFeed(feeds, "title", "description", "https://example.org/", 0, 0));
+		return this.output.size();
+	}
+
+	private RssFeed parse(final byte[] document) throws XMLStreamException {
+		return "passthrough".equals(this.mode)
+				? RssParser.parseFeed(document, Boolean.TRUE)
+				: RssParser.parseFeed(new ByteArrayInputStream(document));
+	}
+}
@@ -0,0 +1,420 @@
+package com.wilke.load;
+
+import com.wilke.CatnapperContext;
+import com.wilke.bench.FeedFixtures;
+import com.wilke.bench.StubUpstreamServer;
+import com.wilke.controller.FeedCombinator;
+import com.wilke.controller.FeedFilter;
+import com.wilke.controller.MetricsExporter;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test: Catnapper deployed in an embedded Tomcat, fetching from a local {@link StubUpstreamServer},
+ * driven by concurrent clients requesting {@code /feed/{id}}. Upstream feeds are not cached by default, so every
+ * request runs the whole path of fetching, parsing and combining.
+ * <p>
+ * Reports throughput and latency percentiles per number of worker threads ({@code maxConcTasks}), aggregate size
+ * and client concurrency. Since the fetching components are bound to the context once per JVM, every number of
+ * worker threads is run in a JVM of its own.
+ * <p>
+ * Options (lists are comma separated):
+ * <pre>
+ * --max-conc-tasks 2,8       worker threads of Catnapper
+ * --aggregate-sizes 1,10,50  upstream feeds per aggregate
+ * --concurrency 1,8,32       concurrent clients
+ * --aggregates 20            aggregates per size, requested at random
+ * --items 75                 items per upstream feed
+ * --latency 50,250           median and p99 upstream latency in milliseconds
+ * --error-rate 0.01          fraction of upstream requests failing (503)
+ * --redirect-rate 0.05       fraction of upstream requests redirected (302)
+ * --warmup 5                 seconds per scenario not measured
+ * --duration 15              seconds per scenario measured
+ * --param name=value         context parameter of Catnapper, repeatable (e.g. feedCacheTtl=15)
+ * --jvm "options"            options of the forked JVMs, {maxConcTasks} is replaced by its value
+ *                            (e.g. "-XX:StartFlightRecording=filename=load-{maxConcTasks}.jfr")
+ * --verbose                  relay the output of the forked JVMs: Server-Timing of the slowest request per scenario
+ *                            and the final scrape of /metrics
+ * </pre>
+ */
+public final class LoadTest {
+
+	private static final String RESULT = "RESULT ";
+
+	private final Map<String, String> options = new LinkedHashMap<>();
+	private final List<String> params = new ArrayList<>();
+
+	private LoadTest(final String[] args) {
+		this.options.put("max-conc-tasks", "2,8");
+		this.options.put("aggregate-sizes", "1,10,50");
+		this.options.put("concurrency", "1,8,32");
+		this.options.put("aggregates", "20");
+		this.options.put("items", "75");
+		this.options.put("latency", "50,250");
+		this.options.put("error-rate", "0.01");
+		this.options.put("redirect-rate", "0.05");
+		this.options.put("warmup", "5");
+		this.options.put("duration", "15");
+		this.options.put("jvm", "");
+
+		for (int idx = 0; idx < args.length; idx++) {
+			final String name = args[idx].replaceFirst("^--", "");
+			if ("verbose".equals(name) || "run".equals(name)) {
+				this.options.put(name, "true");
+			} else if (idx + 1 >= args.length) {
+				throw new IllegalArgumentException("missing value of " + args[idx]);
+			} else if ("param".equals(name)) {
+				this.params.add(args[++idx]);
+			} else if (this.options.containsKey(name)) {
+				this.options.put(name, args[++idx]);
+			} else {
+				throw new IllegalArgumentException("unknown option " + args[idx]);
+			}
+		}
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final LoadTest test = new LoadTest(args);
+		if (test.options.containsKey("run"))
+			test.run();
+		else
+			test.fork();
+	}
+
+	/**
+	 * Runs every number of worker threads in a JVM of its own and relays the results.
+	 */
+	private void fork() throws IOException, InterruptedException {
+		System.out.printf("Upstream: %s, %s items per feed%n", this.behavior(), this.options.get("items"));
+		System.out.printf("%12s %10s %11s %9s %10s %9s %9s %9s %7s %7s%n",
+				"maxConcTasks", "aggregate", "concurrency", "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "errors", "partial");
+
+		for (final int maxConcTasks : this.ints("max-conc-tasks")) {
+			final List<String> command = new ArrayList<>();
+			command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+			for (final String option : this.options.get("jvm").trim().split("\\s+"))
+				if (!option.isEmpty())
+					command.add(option.replace("{maxConcTasks}", String.valueOf(maxConcTasks)));
+			command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), LoadTest.class.getName(), "--run"));
+			for (final Map.Entry<String, String> option : this.options.entrySet())
+				if (!"verbose".equals(option.getKey()) && !"jvm".equals(option.getKey()))
+					command.addAll(Arrays.asList("--" + option.getKey(),
+							"max-conc-tasks".equals(option.getKey()) ? String.valueOf(maxConcTasks) : option.getValue()));
+			for (final String param : this.params)
+				command.addAll(Arrays.asList("--param", param));
+
+			final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				for (String line; (line = reader.readLine()) != null; )
+					if (line.startsWith(RESULT))
+						System.out.println(line.substring(RESULT.length()));
+					else if (this.options.containsKey("verbose"))
+						System.out.println("  " + line);
+			}
+
+			if (process.waitFor() != 0)
+				System.out.printf("JVM of maxConcTasks %d failed (exit code %d), rerun with --verbose%n", maxConcTasks, process.exitValue());
+		}
+	}
+
+	/**
+	 * Runs all scenarios of a single number of worker threads.
+	 */
+	private void run() throws Exception {
+		final int maxConcTasks = this.ints("max-conc-tasks")[0];
+		final int items = this.ints("items")[0];
+		final int aggregates = this.ints("aggregates")[0];
+		final int[] sizes = this.ints("aggregate-sizes");
+
+		final Path directory = Files.createTempDirectory("catnapper-load");
+		final Path feeds = Files.createDirectories(directory.resolve("feeds"));
+		final StubUpstreamServer upstream = new StubUpstreamServer(this.behavior());
+		Tomcat tomcat = null;
+
+		try {
+			long seed = 1L;
+			for (final int size : sizes)
+				for (int aggregate = 0; aggregate < aggregates; aggregate++) {
+					final StringBuilder json = new StringBuilder("{\"identifier\": \"").append(id(size, aggregate))
+							.append("\", \"title\": \"Load\", \"description\": \"Load test\", \"urls\": [");
+					for (int url = 0; url < size; url++)
+						json.append(url == 0 ? "" : ", ").append('"').append(upstream.url(items, seed++)).append('"');
+					Files.write(feeds.resolve(id(size, aggregate) + ".json"), json.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+				}
+
+			tomcat = this.deploy(directory, feeds, maxConcTasks);
+			final String base = "http://127.0.0.1:" + tomcat.getConnector().getLocalPort() + "/feed/";
+			awaitStore(base + id(sizes[0], 0));
+
+			for (final int size : sizes)
+				for (final int concurrency : this.ints("concurrency")) {
+					final Scenario scenario = new Scenario(base, size, aggregates, concurrency);
+					scenario.drive(TimeUnit.SECONDS.toNanos(this.ints("warmup")[0]), TimeUnit.SECONDS.toNanos(this.ints("duration")[0]));
+					System.out.println(RESULT + scenario.report(maxConcTasks));
+					System.out.println("Server-Timing of the slowest request: " + scenario.slowestTiming); // relayed by --verbose
+				}
+
+			System.out.println(scrape(base.replace("/feed/", "/metrics"))); // relayed by --verbose
+		} finally {
+			if (tomcat != null) {
+				tomcat.stop();
+				tomcat.destroy();
+			}
+			upstream.close();
+			FeedFixtures.delete(directory);
+		}
+	}
+
+	/**
+	 * Deploys Catnapper the way web.xml and its annotations do, with the host limits lifted (all upstream
+	 * feeds share the stub's host) and upstream feeds neither cached nor kept, unless overridden by --param.
+	 */
+	private Tomcat deploy(final Path directory, final Path feeds, final int maxConcTasks) throws LifecycleException, IOException {
+		final Tomcat tomcat = new Tomcat();
+		tomcat.setBaseDir(Files.createDirectories(directory.resolve("tomcat")).toString());
+		tomcat.setHostname("127.0.0.1");
+		tomcat.setPort(0);
+		tomcat.getConnector().setProperty("maxThreads", "400");
+
+		final Context context = tomcat.addContext("", Files.createDirectories(directory.resolve("webapp")).toString());
+		context.addParameter("pathToFeeds", feeds.toString());
+		context.addParameter("maxConcTasks", String.valueOf(maxConcTasks));
+		context.addParameter("maxConcTasksPerHost", String.valueOf(maxConcTasks));
+		context.addParameter("maxConnectionsPerHost", String.valueOf(maxConcTasks));
+		context.addParameter("hostRequestRate", "1000000");
+		context.addParameter("hostRequestBurst", "1000000");
+		context.addParameter("feedCacheTtl", "0");
+		context.addParameter("feedCacheStaleWindow", "0");
+		context.addParameter("backgroundRefresh", "false");
+		context.addParameter("itemHistory", "false");
+		for (final String param : this.params) {
+			final int separator = param.indexOf('=');
+			if (separator < 1)
+				throw new IllegalArgumentException("expected name=value: " + param);
+			context.addParameter(param.substring(0, separator), param.substring(separator + 1));
+		}
+		context.addApplicationListener(CatnapperContext.class.getName());
+
+		final Wrapper servlet = Tomcat.addServlet(context, "FeedCombinator", new FeedCombinator());
+		servlet.setAsyncSupported(Boolean.TRUE);
+		context.addServletMappingDecoded("/feed/*", "FeedCombinator");
+		Tomcat.addServlet(context, "MetricsExporter", new MetricsExporter());
+		context.addServletMappingDecoded("/metrics", "MetricsExporter");
+
+		final FilterDef filter = new FilterDef();
+		filter.setFilterName("FeedFilter");
+		filter.setFilterClass(FeedFilter.class.getName());
+		filter.setAsyncSupported("true");
+		context.addFilterDef(filter);
+		final FilterMap mapping = new FilterMap();
+		mapping.setFilterName("FeedFilter");
+		mapping.addServletName("FeedCombinator");
+		context.addFilterMap(mapping);
+
+		tomcat.start();
+		return tomcat;
+	}
+
+	/**
+	 * Waits for the store to be loaded, which happens a few seconds after the start.
+	 */
+	private static void awaitStore(final String url) throws IOException, InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+		while (System.nanoTime() < deadline) {
+			final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+			final int status = connection.getResponseCode();
+			drain(connection);
+			if (status != HttpURLConnection.HTTP_NOT_FOUND)
+				return;
+			Thread.sleep(250L);
+		}
+		throw new IOException("store not loaded in time");
+	}
+
+	private static String scrape(final String url) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			final byte[] chunk = new byte[8192];
+			for (int read; (read = in.read(chunk)) >= 0; )
+				buffer.write(chunk, 0, read);
+			return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void drain(final HttpURLConnection connection) throws IOException {
+		final InputStream stream = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if (stream == null)
+			return;
+		try (InputStream in = stream) {
+			final byte[] buffer = new byte[8192];
+			while (in.read(buffer) >= 0) {
+				// discard, completing the response allows keep-alive
+			}
+		}
+	}
+
+	private StubUpstreamServer.Behavior behavior() {
+		final int[] latency = this.ints("latency");
+		return new StubUpstreamServer.Behavior(latency[0], latency.length > 1 ? latency[1] : latency[0],
+				Double.parseDouble(this.options.get("error-rate")), Double.parseDouble(this.options.get("redirect-rate")));
+	}
+
+	private int[] ints(final String option) {
+		return Arrays.stream(this.options.get(option).split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+	}
+
+	private static String id(final int size, final int aggregate) {
+		return "load-" + size + "-" + aggregate;
+	}
+
+	/**
+	 * A number of clients requesting aggregates of the same size as fast as they are answered.
+	 */
+	private static final class Scenario {
+		final String base;
+		final int size;
+		final int aggregates;
+		final int concurrency;
+
+		final List<long[]> latencies = new ArrayList<>(); // nanoseconds per client
+		long measured; // nanoseconds
+		int errors;
+		int partial;
+		String slowestTiming;
+		long slowest = -1L;
+
+		Scenario(final String base, final int size, final int aggregates, final int concurrency) {
+			this.base = base;
+			this.size = size;
+			this.aggregates = aggregates;
+			this.concurrency = concurrency;
+		}
+
+		void drive(final long warmup, final long duration) throws InterruptedException {
+			final long start = System.nanoTime() + warmup;
+			final long end = start + duration;
+			final Client[] clients = new Client[this.concurrency];
+
+			for (int idx = 0; idx < clients.length; idx++) {
+				clients[idx] = new Client(start, end);
+				clients[idx].start();
+			}
+			for (final Client client : clients) {
+				client.join();
+				this.latencies.add(Arrays.copyOf(client.latencies, client.count));
+				this.errors += client.errors;
+				this.partial += client.partial;
+				if (client.slowest > this.slowest) {
+					this.slowest = client.slowest;
+					this.slowestTiming = client.slowestTiming;
+				}
+			}
+			this.measured = duration;
+		}
+
+		String report(final int maxConcTasks) {
+			int total = 0;
+			for (final long[] client : this.latencies)
+				total += client.length;
+			final long[] all = new long[total];
+			int offset = 0;
+			for (final long[] client : this.latencies) {
+				System.arraycopy(client, 0, all, offset, client.length);
+				offset += client.length;
+			}
+			Arrays.sort(all);
+
+			return String.format("%12d %10d %11d %9d %10.1f %9.1f %9.1f %9.1f %7d %7d",
+					maxConcTasks, this.size, this.concurrency, total, total / (this.measured / 1e9d),
+					percentile(all, 0.5d), percentile(all, 0.99d), percentile(all, 0.999d), this.errors, this.partial);
+		}
+
+		/**
+		 * @return in milliseconds, nearest rank
+		 */
+		private static double percentile(final long[] sorted, final double quantile) {
+			if (sorted.length == 0)
+				return Double.NaN;
+			final int rank = (int) Math.ceil(quantile * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(sorted.length - 1, rank))] / 1e6d;
+		}
+
+		private final class Client extends Thread {
+			final long start;
+			final long end;
+
+			long[] latencies = new long[1024];
+			int count;
+			int errors;
+			int partial;
+			String slowestTiming;
+			long slowest = -1L;
+
+			Client(final long start, final long end) {
+				this.start = start;
+				this.end = end;
+				this.setDaemon(Boolean.TRUE);
+			}
+
+			@Override
+			public void run() {
+				for (long now = System.nanoTime(); now < this.end; now = System.nanoTime()) {
+					final String url = Scenario.this.base + id(Scenario.this.size, ThreadLocalRandom.current().nextInt(Scenario.this.aggregates));
+					boolean failed;
+					boolean isPartial = Boolean.FALSE;
+					String timing = null;
+					try {
+						final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+						connection.setRequestProperty("Accept-Encoding", "gzip");
+						failed = connection.getResponseCode() != HttpURLConnection.HTTP_OK;
+						isPartial = connection.getHeaderField("X-Partial-Feed") != null;
+						timing = connection.getHeaderField("Server-Timing");
+						drain(connection);
+					} catch (final IOException e) {
+						failed = Boolean.TRUE;
+					}
+
+					final long finished = System.nanoTime();
+					if (now < this.start)
+						continue; // warming up
+
+					if (failed)
+						this.errors++;
+					if (isPartial)
+						this.partial++;
+					if (this.count == this.latencies.length)
+						this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+					this.latencies[this.count++] = finished - now;
+					if (finished - now > this.slowest) {
+						this.slowest = finished - now;
+						this.slowestTiming = timing;
+					}
+				}
+			}
+		}
+	}
+}
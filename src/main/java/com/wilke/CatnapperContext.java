@@ -1,7 +1,23 @@
 package com.wilke;
 
 import com.wilke.feed.FeedAggregate;
-import com.wilke.storage.JsonStore;
+import com.wilke.feed.FeedIndex;
+import com.wilke.feed.rss.RssCombinator;
+import com.wilke.feed.rss.RssFeedCache;
+import com.wilke.feed.rss.RssFetcher;
+import com.wilke.feed.rss.RssItemFragments;
+import com.wilke.feed.rss.RssParser;
+import com.wilke.feed.rss.RssProjection;
+import com.wilke.feed.rss.RssRefresher;
+import com.wilke.http.HostHealth;
+import com.wilke.http.HostScheduler;
+import com.wilke.http.UpstreamClient;
+import com.wilke.http.UpstreamClients;
+import com.wilke.metrics.Metrics;
+import com.wilke.storage.ItemHistory;
+import com.wilke.storage.AggregateStore;
+import com.wilke.storage.AggregateStores;
+import com.wilke.storage.MvStore;
 import com.wilke.util.DaemonThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,8 +26,16 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
 @WebListener
 public final class CatnapperContext implements ServletContextListener {
@@ -20,11 +44,51 @@ public final class CatnapperContext implements ServletContextListener {
 
     private static volatile CatnapperContext INSTANCE;
 
-    private volatile JsonStore store;
+    private volatile AggregateStore store;
+    private final FeedIndex feedIndex = new FeedIndex();
     private volatile ExecutorService executorService;
+    private volatile HostScheduler hostScheduler;
+    private volatile HostHealth hostHealth;
+    private volatile ExecutorService hedgeExecutorService;
+    private volatile ExecutorService aggregationExecutorService;
+    private volatile RssFeedCache feedCache;
+    private volatile RssRefresher feedRefresher;
+    private volatile ItemHistory itemHistory;
+    private volatile RssItemFragments itemFragments;
+    private volatile UpstreamClient upstreamClient;
     private volatile String pathToFeeds;
+    private volatile String storeType = AggregateStores.JSON;
+    private volatile String pathToStore; // defaults to a file in pathToFeeds
+    private volatile int storeCacheSize = 10000; // aggregates
+    private volatile boolean storeMigration = true;
     private volatile int maxConcTasks = Runtime.getRuntime().availableProcessors() * 2;
+    private volatile int maxConcTasksPerHost = 4;
+    private volatile double hostRequestRate = 3d; // requests per second
+    private volatile int hostRequestBurst = 20;
+    private volatile int maxConcAggregations = Runtime.getRuntime().availableProcessors() * 2;
+    private volatile int aggregationDeadline = 10000; // milliseconds
+    private volatile int maxItems = 100;
     private volatile int clientCacheTimeout = 3; // hours
+    private volatile int feedCacheSize = 32; // megabytes
+    private volatile int fragmentCacheSize = 16; // megabytes
+    private volatile int feedCacheTtl = 15; // minutes
+    private volatile int feedCacheStaleWindow = 60; // minutes
+    private volatile String upstreamClientType = UpstreamClients.AUTO;
+    private volatile int maxConnectionsPerHost = 4;
+    private volatile int circuitBreakerThreshold = 5;
+    private volatile int circuitBreakerDelay = 30; // seconds
+    private volatile boolean hedgedRequests = true;
+    private volatile boolean backgroundRefresh = true;
+    private volatile int refreshMinInterval = 5; // minutes
+    private volatile int refreshMaxInterval = 360; // minutes
+    private volatile boolean itemHistoryEnabled = false;
+    private volatile String historyPath;
+    private volatile int historyItems = 500;
+    private volatile boolean itemPassthrough = false;
+    private volatile int parseMaxItems = 0; // all of them
+    private volatile int parseMaxSize = 16384; // kilobytes
+    private volatile boolean slowRequestLog = false;
+    private volatile int slowRequestThreshold = 2000; // milliseconds
 
     @Override
     public void contextInitialized(final ServletContextEvent sce) {
@@ -36,11 +100,127 @@ public final class CatnapperContext implements ServletContextListener {
             this.maxConcTasks = Integer.valueOf(param);
         }
 
+        // per host bulkhead and politeness
+        param = ctx.getInitParameter("maxConcTasksPerHost");
+        if (param != null && !param.isEmpty())
+            this.maxConcTasksPerHost = Integer.valueOf(param);
+
+        param = ctx.getInitParameter("hostRequestRate");
+        if (param != null && !param.isEmpty())
+            this.hostRequestRate = Double.valueOf(param);
+
+        param = ctx.getInitParameter("hostRequestBurst");
+        if (param != null && !param.isEmpty())
+            this.hostRequestBurst = Integer.valueOf(param);
+
+        // maximum concurrent aggregations (requests being combined)
+        param = ctx.getInitParameter("maxConcAggregations");
+        if (param != null && !param.isEmpty())
+            this.maxConcAggregations = Integer.valueOf(param);
+
+        // time an aggregation may wait for upstream feeds
+        param = ctx.getInitParameter("aggregationDeadline");
+        if (param != null && !param.isEmpty())
+            this.aggregationDeadline = Integer.valueOf(param);
+
+        // newest items kept per combined feed
+        param = ctx.getInitParameter("maxItems");
+        if (param != null && !param.isEmpty())
+            this.maxItems = Integer.valueOf(param);
+
         // cache timeout of client-side conditional get
         param = ctx.getInitParameter("clientCacheTimeout");
         if (param != null && !param.isEmpty())
             this.clientCacheTimeout = Integer.valueOf(param);
 
+        // http client for upstream feeds
+        param = ctx.getInitParameter("upstreamClient");
+        if (param != null && !param.isEmpty())
+            this.upstreamClientType = param;
+
+        param = ctx.getInitParameter("maxConnectionsPerHost");
+        if (param != null && !param.isEmpty())
+            this.maxConnectionsPerHost = Integer.valueOf(param);
+
+        // upstream host health
+        param = ctx.getInitParameter("circuitBreakerThreshold");
+        if (param != null && !param.isEmpty())
+            this.circuitBreakerThreshold = Integer.valueOf(param);
+
+        param = ctx.getInitParameter("circuitBreakerDelay");
+        if (param != null && !param.isEmpty())
+            this.circuitBreakerDelay = Integer.valueOf(param);
+
+        param = ctx.getInitParameter("hedgedRequests");
+        if (param != null && !param.isEmpty())
+            this.hedgedRequests = Boolean.valueOf(param);
+
+        // server-side feed cache
+        param = ctx.getInitParameter("feedCacheSize");
+        if (param != null && !param.isEmpty())
+            this.feedCacheSize = Integer.valueOf(param);
+
+        param = ctx.getInitParameter("fragmentCacheSize");
+        if (param != null && !param.isEmpty())
+            this.fragmentCacheSize = Integer.valueOf(param);
+
+        param = ctx.getInitParameter("feedCacheTtl");
+        if (param != null && !param.isEmpty())
+            this.feedCacheTtl = Integer.valueOf(param);
+
+        param = ctx.getInitParameter("feedCacheStaleWindow");
+        if (param != null && !param.isEmpty())
+            this.feedCacheStaleWindow = Integer.valueOf(param);
+
+        // background refreshing of upstream feeds
+        param = ctx.getInitParameter("backgroundRefresh");
+        if (param != null && !param.isEmpty())
+            this.backgroundRefresh = Boolean.valueOf(param);
+
+        param = ctx.getInitParameter("refreshMinInterval");
+        if (param != null && !param.isEmpty())
+            this.refreshMinInterval = Integer.valueOf(param);
+
+        param = ctx.getInitParameter("refreshMaxInterval");
+        if (param != null && !param.isEmpty())
+            this.refreshMaxInterval = Integer.valueOf(param);
+
+        // persistent item history of upstream feeds
+        param = ctx.getInitParameter("itemHistory");
+        if (param != null && !param.isEmpty())
+            this.itemHistoryEnabled = Boolean.valueOf(param);
+
+        param = ctx.getInitParameter("historyPath");
+        if (param != null && !param.isEmpty())
+            this.historyPath = param;
+
+        param = ctx.getInitParameter("historyItems");
+        if (param != null && !param.isEmpty())
+            this.historyItems = Integer.valueOf(param);
+
+        // upstream items written to combined feeds as is
+        param = ctx.getInitParameter("itemPassthrough");
+        if (param != null && !param.isEmpty())
+            this.itemPassthrough = Boolean.valueOf(param);
+
+        // limits of parsing upstream feeds
+        param = ctx.getInitParameter("parseMaxItems");
+        if (param != null && !param.isEmpty())
+            this.parseMaxItems = Integer.valueOf(param);
+
+        param = ctx.getInitParameter("parseMaxSize");
+        if (param != null && !param.isEmpty())
+            this.parseMaxSize = Integer.valueOf(param);
+
+        // logging of slow feed requests
+        param = ctx.getInitParameter("slowRequestLog");
+        if (param != null && !param.isEmpty())
+            this.slowRequestLog = Boolean.valueOf(param);
+
+        param = ctx.getInitParameter("slowRequestThreshold");
+        if (param != null && !param.isEmpty())
+            this.slowRequestThreshold = Integer.valueOf(param);
+
         // path for JsonStore
         param = ctx.getInitParameter("pathToFeeds");
         if (param == null || param.isEmpty()) {
@@ -49,31 +229,240 @@ public final class CatnapperContext implements ServletContextListener {
                 throw new RuntimeException("Catnapper: Failed to translate config folder to filesystem path. Make sure the .war file was extracted!");
         }
         this.pathToFeeds = param;
+
+        // aggregate store
+        param = ctx.getInitParameter("storeType");
+        if (param != null && !param.isEmpty())
+            this.storeType = param;
+
+        param = ctx.getInitParameter("pathToStore");
+        this.pathToStore = param != null && !param.isEmpty() ? param : Paths.get(this.pathToFeeds, "aggregates.mv.db").toString();
+
+        param = ctx.getInitParameter("storeCacheSize");
+        if (param != null && !param.isEmpty())
+            this.storeCacheSize = Integer.valueOf(param);
+
+        param = ctx.getInitParameter("storeMigration");
+        if (param != null && !param.isEmpty())
+            this.storeMigration = Boolean.valueOf(param);
+
         this.executorService = Executors.newFixedThreadPool(this.maxConcTasks(), DaemonThreadFactory.INSTANCE);
-        this.store = new JsonStore(this.pathToFeeds());
+        this.hostScheduler = new HostScheduler(this.executorService,
+                this.maxConcTasksPerHost, this.hostRequestRate, this.hostRequestBurst);
+        this.hostHealth = new HostHealth(Math.max(RssFetcher.connectTimeout, RssFetcher.readTimeout),
+                this.circuitBreakerThreshold, TimeUnit.SECONDS.toMillis(this.circuitBreakerDelay), this.hedgedRequests);
+        // attempts of hedged fetches, their number is bound by the fetching workers waiting for them
+        this.hedgeExecutorService = Executors.newCachedThreadPool(DaemonThreadFactory.INSTANCE);
+        // separate pool, aggregations wait for fetches and must never starve them
+        this.aggregationExecutorService = Executors.newFixedThreadPool(this.maxConcAggregations, DaemonThreadFactory.INSTANCE);
+        this.upstreamClient = UpstreamClients.create(this.upstreamClientType,
+                RssFetcher.connectTimeout, RssFetcher.readTimeout, this.maxConnectionsPerHost);
+        this.feedCache = new RssFeedCache(
+                this.feedCacheSize * 1024L * 1024L,
+                TimeUnit.MINUTES.toMillis(this.feedCacheTtl),
+                TimeUnit.MINUTES.toMillis(this.feedCacheStaleWindow));
+        this.itemFragments = new RssItemFragments(this.fragmentCacheSize * 1024L * 1024L);
+        if (this.itemHistoryEnabled && this.historyPath == null)
+            log.warn("Item history disabled, parameter [historyPath] is not set");
+        else if (this.itemHistoryEnabled)
+            try {
+                this.itemHistory = new ItemHistory(Paths.get(this.historyPath), this.historyItems);
+            } catch (final IOException e) {
+                log.warn("Item history disabled, could not create '{}': {}", this.historyPath, e.toString());
+            }
+        try {
+            this.store = AggregateStores.create(this.storeType, this.pathToFeeds, this.pathToStore, this.storeCacheSize, this.storeMigration);
+        } catch (final IOException e) {
+            throw new RuntimeException("Catnapper: Failed to open the aggregate store: " + e.getMessage(), e);
+        }
+
+        if (this.backgroundRefresh)
+            this.feedRefresher = new RssRefresher(this.feedCache,
+                    TimeUnit.MINUTES.toMillis(this.refreshMinInterval),
+                    TimeUnit.MINUTES.toMillis(this.refreshMaxInterval));
+
+        this.store.addReloadListener(aggregates -> {
+            this.feedIndex.update(aggregates);
+            RssCombinator.retain(this.feedIndex.identifiers());
+            this.reconcile();
+        });
+        // saves touch the index for the saved aggregate only
+        this.store.addSaveListener(aggregate -> {
+            this.feedIndex.update(aggregate);
+            this.reconcile();
+        });
 
         CatnapperContext.INSTANCE = this;
 
-        log.info("Parameter [pathToFeeds]        : {}", pathToFeeds);
-        log.info("Parameter [maxConcTasks]       : {}", maxConcTasks);
-        log.info("Parameter [clientCacheTimeout] : {}", clientCacheTimeout);
+        this.registerMetrics();
+
+        log.info("Parameter [pathToFeeds]            : {}", pathToFeeds);
+        log.info("Parameter [storeType]              : {} ({})", storeType, store.getClass().getSimpleName());
+        log.info("Parameter [pathToStore]            : {}", pathToStore);
+        log.info("Parameter [storeCacheSize]         : {}", storeCacheSize);
+        log.info("Parameter [storeMigration]         : {}", storeMigration);
+        log.info("Parameter [maxConcTasks]           : {}", maxConcTasks);
+        log.info("Parameter [maxConcTasksPerHost]    : {}", maxConcTasksPerHost);
+        log.info("Parameter [hostRequestRate]        : {}", hostRequestRate);
+        log.info("Parameter [hostRequestBurst]       : {}", hostRequestBurst);
+        log.info("Parameter [maxConcAggregations]    : {}", maxConcAggregations);
+        log.info("Parameter [aggregationDeadline]    : {}", aggregationDeadline);
+        log.info("Parameter [maxItems]               : {}", maxItems);
+        log.info("Parameter [clientCacheTimeout]     : {}", clientCacheTimeout);
+        log.info("Parameter [upstreamClient]         : {} ({})", upstreamClientType, upstreamClient.getClass().getSimpleName());
+        log.info("Parameter [maxConnectionsPerHost]  : {}", maxConnectionsPerHost);
+        log.info("Parameter [circuitBreakerThreshold]: {}", circuitBreakerThreshold);
+        log.info("Parameter [circuitBreakerDelay]    : {}", circuitBreakerDelay);
+        log.info("Parameter [hedgedRequests]         : {}", hedgedRequests);
+        log.info("Parameter [feedCacheSize]          : {}", feedCacheSize);
+        log.info("Parameter [fragmentCacheSize]      : {}", fragmentCacheSize);
+        log.info("Parameter [feedCacheTtl]           : {}", feedCacheTtl);
+        log.info("Parameter [feedCacheStaleWindow]   : {}", feedCacheStaleWindow);
+        log.info("Parameter [backgroundRefresh]      : {}", backgroundRefresh);
+        log.info("Parameter [refreshMinInterval]     : {}", refreshMinInterval);
+        log.info("Parameter [refreshMaxInterval]     : {}", refreshMaxInterval);
+        log.info("Parameter [itemHistory]            : {}", itemHistory != null);
+        log.info("Parameter [historyPath]            : {}", historyPath);
+        log.info("Parameter [historyItems]           : {}", historyItems);
+        log.info("Parameter [itemPassthrough]        : {}", itemPassthrough);
+        log.info("Parameter [parseMaxItems]          : {}", parseMaxItems);
+        log.info("Parameter [parseMaxSize]           : {}", parseMaxSize);
+        log.info("Parameter [slowRequestLog]         : {}", slowRequestLog);
+        log.info("Parameter [slowRequestThreshold]   : {}", slowRequestThreshold);
     }
 
     @Override
     public void contextDestroyed(final ServletContextEvent sce) {
-        final JsonStore store = this.store;
+        final RssRefresher feedRefresher = this.feedRefresher;
+        if (feedRefresher != null)
+            feedRefresher.close();
+
+        final AggregateStore store = this.store;
         if (store != null)
             store.close();
 
+        final ItemHistory itemHistory = this.itemHistory;
+        if (itemHistory != null)
+            itemHistory.close();
+
+        final HostScheduler hostScheduler = this.hostScheduler;
+        if (hostScheduler != null) {
+            log.info("Tasks waiting per host: {}", hostScheduler.queueDepths());
+            hostScheduler.shutdown();
+        }
+
         final ExecutorService executorService = this.executorService;
         if (executorService != null)
             executorService.shutdown();
 
+        final ExecutorService hedgeExecutorService = this.hedgeExecutorService;
+        if (hedgeExecutorService != null)
+            hedgeExecutorService.shutdown();
+
+        final ExecutorService aggregationExecutorService = this.aggregationExecutorService;
+        if (aggregationExecutorService != null)
+            aggregationExecutorService.shutdown();
+
+        final UpstreamClient upstreamClient = this.upstreamClient;
+        if (upstreamClient != null)
+            upstreamClient.close();
+
+        final RssFeedCache feedCache = this.feedCache;
+        if (feedCache != null)
+            log.info("{}", feedCache);
+
+        final RssItemFragments itemFragments = this.itemFragments;
+        if (itemFragments != null)
+            log.info("{}", itemFragments);
+
         // shutdown logback
         if (LoggerFactory.getILoggerFactory() instanceof ch.qos.logback.classic.LoggerContext)
             ((ch.qos.logback.classic.LoggerContext) LoggerFactory.getILoggerFactory()).stop();
     }
 
+    /**
+     * Aligns the polled upstream feeds and the item history with the URLs of the feed index.
+     */
+    private void reconcile() {
+        final RssRefresher refresher = this.feedRefresher;
+        if (refresher != null)
+            refresher.reconcile(this.feedIndex.urls());
+
+        final ItemHistory history = this.itemHistory;
+        if (history != null)
+            history.reconcile(this.feedIndex.urls());
+    }
+
+    /**
+     * Exposes the statistics kept by the components, read on each scrape only.
+     */
+    private void registerMetrics() {
+        final Metrics metrics = Metrics.registry();
+
+        final Map<String, ExecutorService> pools = new TreeMap<>();
+        pools.put("fetch", this.executorService);
+        pools.put("hedge", this.hedgeExecutorService);
+        pools.put("aggregation", this.aggregationExecutorService);
+        metrics.gauges("catnapper_executor_threads", "Worker threads per pool", "pool",
+                () -> poolStats(pools, ThreadPoolExecutor::getPoolSize));
+        metrics.gauges("catnapper_executor_active", "Worker threads running a task per pool", "pool",
+                () -> poolStats(pools, ThreadPoolExecutor::getActiveCount));
+        metrics.gauges("catnapper_executor_queued", "Tasks waiting for a worker thread per pool", "pool",
+                () -> poolStats(pools, pool -> pool.getQueue().size()));
+        metrics.counters("catnapper_executor_completed_total", "Tasks completed per pool", "pool",
+                () -> poolStats(pools, ThreadPoolExecutor::getCompletedTaskCount));
+
+        final HostScheduler hostScheduler = this.hostScheduler;
+        metrics.gauges("catnapper_host_queued", "Fetches waiting for their host's turn per host", "host", hostScheduler::queueDepths);
+
+        final RssFeedCache feedCache = this.feedCache;
+        metrics.counter("catnapper_feed_cache_hits_total", "Upstream feeds served fresh from the cache", feedCache::hitCount);
+        metrics.counter("catnapper_feed_cache_stale_hits_total", "Upstream feeds served stale from the cache while refreshed", feedCache::staleHitCount);
+        metrics.counter("catnapper_feed_cache_misses_total", "Upstream feeds missing or expired in the cache", feedCache::missCount);
+        metrics.counter("catnapper_feed_cache_evictions_total", "Upstream feeds evicted from the cache", feedCache::evictionCount);
+        metrics.gauge("catnapper_feed_cache_bytes", "Estimated size of the upstream feeds cached", feedCache::weight);
+        metrics.gauge("catnapper_feed_cache_entries", "Upstream feeds cached", feedCache::size);
+
+        final RssItemFragments itemFragments = this.itemFragments;
+        metrics.counter("catnapper_fragment_cache_hits_total", "Items of combined feeds encoded already", itemFragments::hitCount);
+        metrics.counter("catnapper_fragment_cache_misses_total", "Items of combined feeds encoded anew", itemFragments::missCount);
+        metrics.counter("catnapper_fragment_cache_evictions_total", "Encoded items evicted from the cache", itemFragments::evictionCount);
+        metrics.gauge("catnapper_fragment_cache_bytes", "Estimated size of the encoded items cached", itemFragments::weight);
+        metrics.gauge("catnapper_fragment_cache_entries", "Encoded items cached", itemFragments::size);
+
+        metrics.counter("catnapper_fetches_coalesced_total", "Fetches joining an identical fetch in progress", RssFetcher::coalescedFetches);
+        metrics.counter("catnapper_fetches_hedged_total", "Fetches duplicated after running past the p95 latency of their host", RssFetcher::hedgedFetches);
+        metrics.counter("catnapper_fetches_abandoned_total", "Fetches nobody waited for anymore", RssFetcher::abandonedFetches);
+        metrics.counter("catnapper_upstream_transferred_bytes_total", "Bytes transferred from upstream, possibly compressed", RssFetcher::compressedBytes);
+        metrics.counter("catnapper_upstream_decoded_bytes_total", "Bytes passed to the parser after decoding", RssFetcher::uncompressedBytes);
+        metrics.counter("catnapper_aggregations_coalesced_total", "Requests joining an identical combination in progress", RssCombinator::coalescedAggregations);
+
+        final AggregateStore store = this.store;
+        metrics.gauge("catnapper_store_aggregates", "Feed aggregates stored", store::size);
+        if (store instanceof MvStore) {
+            final MvStore mvStore = (MvStore) store;
+            metrics.counter("catnapper_store_cache_hits_total", "Feed aggregates found in memory", mvStore::hitCount);
+            metrics.counter("catnapper_store_cache_misses_total", "Feed aggregates looked up in the embedded store", mvStore::missCount);
+            metrics.gauge("catnapper_store_cache_entries", "Feed aggregates kept in memory", mvStore::cacheSize);
+        }
+        metrics.gauge("catnapper_upstream_feeds", "Distinct upstream feeds of all aggregates", () -> this.feedIndex.urls().size());
+
+        final RssRefresher feedRefresher = this.feedRefresher;
+        if (feedRefresher != null)
+            metrics.gauge("catnapper_refresher_feeds", "Upstream feeds polled in the background", feedRefresher::size);
+    }
+
+    /**
+     * @return the given statistic of each pool, if a {@link ThreadPoolExecutor}
+     */
+    private static Map<String, Long> poolStats(final Map<String, ExecutorService> pools, final ToLongFunction<ThreadPoolExecutor> stat) {
+        final Map<String, Long> stats = new TreeMap<>();
+        for (final Map.Entry<String, ExecutorService> pool : pools.entrySet())
+            if (pool.getValue() instanceof ThreadPoolExecutor)
+                stats.put(pool.getKey(), stat.applyAsLong((ThreadPoolExecutor) pool.getValue()));
+        return stats;
+    }
+
     public static CatnapperContext instance() {
         return CatnapperContext.INSTANCE;
     }
@@ -86,6 +475,24 @@ public final class CatnapperContext implements ServletContextListener {
         return this.maxConcTasks;
     }
 
+    /**
+     * @return default time in milliseconds an aggregation may wait for upstream feeds
+     */
+    public int aggregationDeadline() {
+        return this.aggregationDeadline;
+    }
+
+    /**
+     * @return default number of newest items kept per combined feed, 0 for all of them
+     */
+    public int maxItems() {
+        return this.maxItems;
+    }
+
+    /**
+     * @deprecated combined feeds carry real validators (ETag, Last-Modified) instead
+     */
+    @Deprecated
     public long clientCacheTimeout() {
         return this.clientCacheTimeout;
     }
@@ -94,6 +501,85 @@ public final class CatnapperContext implements ServletContextListener {
         return this.executorService;
     }
 
+    /**
+     * Queues fetches per upstream host in front of {@link #asyncExecutorService()}.
+     */
+    public HostScheduler hostScheduler() {
+        return this.hostScheduler;
+    }
+
+    public HostHealth hostHealth() {
+        return this.hostHealth;
+    }
+
+    /**
+     * Pool running the attempts of hedged fetches.
+     */
+    public ExecutorService hedgeExecutorService() {
+        return this.hedgeExecutorService;
+    }
+
+    /**
+     * Pool running the aggregations of asynchronous feed requests, separate from the fetching one.
+     */
+    public ExecutorService aggregationExecutorService() {
+        return this.aggregationExecutorService;
+    }
+
+    public UpstreamClient upstreamClient() {
+        return this.upstreamClient;
+    }
+
+    public RssFeedCache feedCache() {
+        return this.feedCache;
+    }
+
+    public FeedIndex feedIndex() {
+        return this.feedIndex;
+    }
+
+    /**
+     * @return null if background refreshing is disabled
+     */
+    public RssRefresher feedRefresher() {
+        return this.feedRefresher;
+    }
+
+    public RssItemFragments itemFragments() {
+        return this.itemFragments;
+    }
+
+    /**
+     * @return null if the item history is disabled
+     */
+    public ItemHistory itemHistory() {
+        return this.itemHistory;
+    }
+
+    /**
+     * @return whether upstream items are written to combined feeds as is
+     * @see RssParser#parseFeed(byte[], boolean)
+     */
+    public boolean itemPassthrough() {
+        return this.itemPassthrough;
+    }
+
+    /**
+     * @return what of upstream feeds is parsed: every field shown by combined feeds (the upstream description is not)
+     *         within the configured limits
+     */
+    public RssProjection feedProjection() {
+        return new RssProjection(EnumSet.complementOf(EnumSet.of(RssProjection.Field.DESCRIPTION)),
+                this.parseMaxItems, this.parseMaxSize * 1024L);
+    }
+
+    /**
+     * @return time in milliseconds from which on feed requests are logged, -1 if they are not logged at all
+     */
+    public long slowRequestThreshold() {
+        return this.slowRequestLog ? this.slowRequestThreshold : -1L;
+    }
+
     @Deprecated
     public FeedAggregate getAggregate(final String identifier) {
         return store.getAggregate(identifier);
@@ -101,6 +587,6 @@ public final class CatnapperContext implements ServletContextListener {
 
     @Deprecated
     public String setAggregate(final FeedAggregate aggregate, final String newUrls) {
-        return store.writeFile(aggregate, newUrls);
+        return store.setAggregate(aggregate, newUrls);
     }
 }
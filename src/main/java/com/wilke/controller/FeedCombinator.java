@@ -2,66 +2,336 @@ package com.wilke.controller;
 
 import com.wilke.CatnapperContext;
 import com.wilke.feed.FeedAggregate;
+import com.wilke.feed.rss.CombinedFeed;
 import com.wilke.feed.rss.RssCombinator;
+import com.wilke.metrics.RequestTiming;
+import com.wilke.metrics.RequestTiming.Phase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.wilke.controller.FeedFilter.FEED_AGGREGATE;
+import static com.wilke.controller.FeedFilter.REQUEST_TIMING;
 
 @WebServlet(
 		name="FeedCombinator",
-		urlPatterns={"/Feed/*", "/feed/*"})
+		urlPatterns={"/Feed/*", "/feed/*"},
+		asyncSupported=true)
 public final class FeedCombinator extends HttpServlet {
 
 	private static final long serialVersionUID = -1262361487011189016L;
 
 	private static final Logger log = LoggerFactory.getLogger(FeedCombinator.class);
 
+	/**
+	 * Time in milliseconds an asynchronous request may take at most.
+	 */
+	private static final long ASYNC_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * Response header telling the number of feeds left out of a partial combination and the number of feeds aggregated.
+	 */
+	static final String PARTIAL_HEADER = "X-Partial-Feed";
+
+	/**
+	 * Response header telling the phase timings of the request.
+	 *
+	 * @see RequestTiming#header()
+	 */
+	static final String TIMING_HEADER = "Server-Timing";
+
+	/**
+	 * Processed asynchronously: the combination runs on the aggregation pool and the body is written
+	 * in a non-blocking way, so no container thread waits for upstream feeds or slow clients.
+	 */
 	@Override
 	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
 		final FeedAggregate aggregate = (FeedAggregate)request.getAttribute(FEED_AGGREGATE);
+		final RequestTiming timing = request.getAttribute(REQUEST_TIMING) != null ? (RequestTiming)request.getAttribute(REQUEST_TIMING) : new RequestTiming();
 		aggregate.link = request.getRequestURL().toString(); // apply feed url; optimistic approach as dependent on infrastructure
 
-		response.setHeader("Connection", "close");
-//		response.setHeader("ETag", Long.toString(System.currentTimeMillis())); // TODO support etag caching
-		response.setContentType("application/rss+xml;charset=UTF-8");
+		final boolean gzip = FeedCombinator.acceptsGzip(request);
+		final String ifNoneMatch = request.getHeader("If-None-Match");
+		final long ifModifiedSince = FeedCombinator.getDateHeader(request, "If-Modified-Since");
+		final long deadline = FeedCombinator.deadline(request, aggregate);
+
+		final AsyncContext async = request.startAsync();
+		async.setTimeout(ASYNC_TIMEOUT);
+		final AsyncResponse asyncResponse = new AsyncResponse(async, response);
+		async.addListener(asyncResponse);
+
+		try {
+			final long submitted = System.nanoTime();
+			CompletableFuture
+					.supplyAsync(() -> {
+						timing.addSince(Phase.QUEUE, submitted);
+						return RssCombinator.combineFeed(aggregate, deadline, timing);
+					}, CatnapperContext.instance().aggregationExecutorService())
+					.whenComplete((feed, e) -> {
+						if (e != null) {
+							log.error("Could not aggregate user feed '{}': {}", aggregate.identifier, e.toString());
+							asyncResponse.fail();
+						} else {
+							FeedCombinator.respond(asyncResponse, aggregate, feed, gzip, ifNoneMatch, ifModifiedSince, timing);
+						}
+					});
+		} catch (final RejectedExecutionException e) {
+			log.warn("Could not aggregate user feed '{}': {}", aggregate.identifier, e.toString());
+			asyncResponse.fail();
+		}
+	}
+
+	private static void respond(final AsyncResponse asyncResponse, final FeedAggregate aggregate, final CombinedFeed feed,
+			final boolean gzip, final String ifNoneMatch, final long ifModifiedSince, final RequestTiming timing) {
+		if (!asyncResponse.claim())
+			return; // timed out or failed meanwhile, the response may belong to another request by now
+
+		final HttpServletResponse response = asyncResponse.response;
 
+		response.setHeader("Vary", "Accept-Encoding");
+		response.setHeader("Cache-Control", "no-cache"); // always revalidate, cheap thanks to validators
+		response.setHeader("ETag", gzip ? feed.gzipEtag() : feed.etag());
+		if (feed.lastModified() > 0L)
+			response.setDateHeader("Last-Modified", feed.lastModified());
+		if (feed.isPartial())
+			response.setHeader(PARTIAL_HEADER, String.format("missing=%d; total=%d", feed.missing(), aggregate.urls.size()));
+
+		if (FeedCombinator.isNotModified(feed, ifNoneMatch, ifModifiedSince)) {
+			FeedCombinator.timed(response, aggregate, timing);
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			asyncResponse.complete();
+			return;
+		}
+
+		final ByteBuffer[] body;
+		final int length;
+		final long start = System.nanoTime();
 		try {
-			RssCombinator.aggregateFeed(response.getOutputStream(), aggregate);
-		} catch (XMLStreamException e) {
+			body = gzip ? new ByteBuffer[] { ByteBuffer.wrap(feed.gzipped()) } : feed.content();
+			length = gzip ? body[0].remaining() : feed.contentLength();
+		} catch (final XMLStreamException e) {
 			log.error("Could not aggregate user feed '{}': {}", aggregate.identifier, e.toString());
-			throw new IOException(e);
+			asyncResponse.error(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			return;
 		}
+		timing.addSince(Phase.RENDER, start);
+		FeedCombinator.timed(response, aggregate, timing);
+
+		response.setContentType("application/rss+xml;charset=UTF-8");
+		if (gzip)
+			response.setHeader("Content-Encoding", "gzip");
+		response.setContentLength(length);
+		asyncResponse.write(body);
 	}
 
 	/**
-	 * Exploits the "If-Modified-Since" header of the conditional GET request
-	 * to apply some caching behavior. Does not factor in possible updates
-	 * of the user feed that might have occurred in the meantime.
+	 * Sets the timing header and logs the request if slow, the time writing the body is not included.
 	 */
-	@Override
-	protected long getLastModified(final HttpServletRequest request) {
-		final long now = System.currentTimeMillis() / 1000L * 1000L; // seconds
-		long ifModifiedSince;
+	private static void timed(final HttpServletResponse response, final FeedAggregate aggregate, final RequestTiming timing) {
+		response.setHeader(TIMING_HEADER, timing.header());
+
+		final long threshold = CatnapperContext.instance().slowRequestThreshold();
+		if (threshold >= 0L && TimeUnit.NANOSECONDS.toMillis(timing.elapsed()) >= threshold)
+			log.warn("Slow request of user feed '{}': {}", aggregate.identifier, timing.header());
+	}
+
+	/**
+	 * Evaluates "If-None-Match" and, only in its absence, "If-Modified-Since" against the combined feed.
+	 */
+	static boolean isNotModified(final CombinedFeed feed, final String ifNoneMatch, final long ifModifiedSince) {
+		if (ifNoneMatch != null)
+			return feed.matches(ifNoneMatch);
+
+		if (feed.lastModified() <= 0L)
+			return Boolean.FALSE;
+
+		return ifModifiedSince >= feed.lastModified() / 1000L * 1000L; // seconds
+	}
+
+	/**
+	 * Deadline of the aggregate (or the default one), which may be lowered by the request parameter "deadline" in milliseconds.
+	 */
+	static long deadline(final HttpServletRequest request, final FeedAggregate aggregate) {
+		final long deadline = aggregate.deadline > 0 ? aggregate.deadline : CatnapperContext.instance().aggregationDeadline();
+
+		final String param = request.getParameter("deadline");
+		if (param == null || param.isEmpty())
+			return deadline;
+
+		try {
+			return Math.max(0L, Math.min(deadline, Long.parseLong(param.trim())));
+		} catch (final NumberFormatException e) {
+			return deadline;
+		}
+	}
 
+	private static long getDateHeader(final HttpServletRequest request, final String name) {
 		try {
-			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			return request.getDateHeader(name);
 		} catch (final IllegalArgumentException e) {
-			ifModifiedSince = -1L;
+			return -1L;
+		}
+	}
+
+	/**
+	 * Tells whether the client accepts gzip, i.e. lists it in "Accept-Encoding" without a quality of zero.
+	 */
+	static boolean acceptsGzip(final HttpServletRequest request) {
+		final String acceptEncoding = request.getHeader("Accept-Encoding");
+		if (acceptEncoding == null)
+			return Boolean.FALSE;
+
+		for (final String coding : acceptEncoding.split(",")) {
+			final String[] params = coding.trim().split(";");
+			if (!"gzip".equalsIgnoreCase(params[0].trim()) && !"x-gzip".equalsIgnoreCase(params[0].trim()))
+				continue;
+
+			for (int idx = 1; idx < params.length; idx++) {
+				final String param = params[idx].trim();
+				if (param.startsWith("q="))
+					try {
+						return Double.parseDouble(param.substring(2)) > 0d;
+					} catch (final NumberFormatException e) {
+						return Boolean.FALSE;
+					}
+			}
+			return Boolean.TRUE;
+		}
+
+		return Boolean.FALSE;
+	}
+
+	/**
+	 * Completes an asynchronous request exactly once, either by writing a body without blocking,
+	 * by an error status or by the container's timeout. The body is written buffer after buffer
+	 * straight from their backing arrays, the servlet API offers no gathering write.
+	 * <p>
+	 * The response is touched by a single party only, the one {@link #claim() claiming} it first.
+	 */
+	private static final class AsyncResponse implements AsyncListener, WriteListener {
+		private static final int CHUNK_SIZE = 8192;
+
+		private final AsyncContext async;
+		private final HttpServletResponse response;
+		private final AtomicBoolean started = new AtomicBoolean(); // response claimed
+		private final AtomicBoolean completed = new AtomicBoolean();
+
+		private ServletOutputStream stream;
+		private ByteBuffer[] body;
+		private int current; // index of the buffer being written
+
+		AsyncResponse(final AsyncContext async, final HttpServletResponse response) {
+			this.async = async;
+			this.response = response;
+		}
+
+		/**
+		 * @param body buffers backed by arrays
+		 */
+		void write(final ByteBuffer[] body) {
+			this.body = body;
+			try {
+				this.stream = this.response.getOutputStream();
+				this.stream.setWriteListener(this); // calls onWritePossible() as soon as writing does not block
+			} catch (final IOException | IllegalStateException e) {
+				this.onError(e);
+			}
+		}
+
+		/**
+		 * Takes over the response, to be called before touching it.
+		 *
+		 * @return false if the response was claimed before, e.g. by the container's timeout
+		 */
+		boolean claim() {
+			return this.started.compareAndSet(Boolean.FALSE, Boolean.TRUE);
+		}
+
+		/**
+		 * Responds with an internal error unless the response was claimed before.
+		 */
+		void fail() {
+			if (this.claim())
+				this.error(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+
+		/**
+		 * Responds with the given error status, the response being claimed by the caller.
+		 */
+		void error(final int status) {
+			if (this.completed.compareAndSet(Boolean.FALSE, Boolean.TRUE)) {
+				if (!this.response.isCommitted()) {
+					this.response.reset();
+					this.response.setStatus(status);
+				}
+				this.async.complete();
+			}
+		}
+
+		void complete() {
+			if (this.completed.compareAndSet(Boolean.FALSE, Boolean.TRUE))
+				this.async.complete();
+		}
+
+		@Override
+		public void onWritePossible() throws IOException {
+			while (this.stream.isReady()) {
+				while (this.current < this.body.length && !this.body[this.current].hasRemaining())
+					this.current++;
+				if (this.current >= this.body.length) {
+					this.complete();
+					return;
+				}
+
+				final ByteBuffer buffer = this.body[this.current];
+				final int length = Math.min(CHUNK_SIZE, buffer.remaining());
+				this.stream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+				((Buffer) buffer).position(buffer.position() + length);
+			}
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+			log.debug("Could not write response: {}", throwable.toString()); // client went away
+			this.started.set(Boolean.TRUE); // a late aggregation must not touch the response anymore
+			this.complete();
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) {
+			if (this.claim())
+				this.error(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			else
+				this.complete(); // still writing to a slow client
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) {
+			this.onError(event.getThrowable());
 		}
 
-		if (now > ifModifiedSince + TimeUnit.HOURS.toMillis(CatnapperContext.instance().clientCacheTimeout()))
-			return now; // last request is too long ago
+		@Override
+		public void onComplete(final AsyncEvent event) {}
 
-		return ifModifiedSince; // no change since last request
+		@Override
+		public void onStartAsync(final AsyncEvent event) {}
 	}
 }
@@ -2,6 +2,8 @@ package com.wilke.controller;
 
 import com.wilke.CatnapperContext;
 import com.wilke.feed.FeedAggregate;
+import com.wilke.metrics.RequestTiming;
+import com.wilke.metrics.RequestTiming.Phase;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -14,24 +16,32 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
-@WebFilter(servletNames={"FeedCombinator", "FeedSettings"})
+@WebFilter(servletNames={"FeedCombinator", "FeedSettings"}, asyncSupported=true)
 public class FeedFilter implements Filter {
 
 	static final String FEED_AGGREGATE = "feedAggregate";
 
+	/**
+	 * Request attribute holding the {@link RequestTiming}, started by this filter.
+	 */
+	static final String REQUEST_TIMING = "requestTiming";
+
 	@Override
 	public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain) throws IOException, ServletException {
 		final HttpServletRequest  httpReq  = (HttpServletRequest)request;
 		final HttpServletResponse httpResp = (HttpServletResponse)response;
+		final RequestTiming timing        = new RequestTiming();
 
 		final String feedIdentifier   = FeedFilter.getFeedIdentifier(httpReq.getRequestURI());
 		final FeedAggregate aggregate = CatnapperContext.instance().getAggregate(feedIdentifier);
+		timing.add(Phase.LOOKUP, timing.elapsed());
 
 		if (aggregate == null) { // abort further processing
 			httpResp.reset();
 			httpResp.setStatus(HttpServletResponse.SC_NOT_FOUND);
 		} else {
 			httpReq.setAttribute(FEED_AGGREGATE, aggregate);
+			httpReq.setAttribute(REQUEST_TIMING, timing);
 			chain.doFilter(httpReq, httpResp);
 		}
 	}
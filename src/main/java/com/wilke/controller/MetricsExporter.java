@@ -0,0 +1,28 @@
+package com.wilke.controller;
+
+import com.wilke.metrics.Metrics;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Exposes the application's {@link Metrics} in the Prometheus text format.
+ */
+@WebServlet(
+		name="MetricsExporter",
+		urlPatterns={"/metrics"})
+public final class MetricsExporter extends HttpServlet {
+
+	private static final long serialVersionUID = 5081734624471190452L;
+
+	@Override
+	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+		response.setHeader("Cache-Control", "no-store");
+		response.setContentType(Metrics.CONTENT_TYPE);
+		Metrics.registry().write(response.getWriter());
+	}
+}
@@ -1,7 +1,9 @@
 package com.wilke.feed;
 
+import com.wilke.CatnapperContext;
 import com.wilke.feed.rss.RssFeed;
 import com.wilke.feed.rss.RssFetcher;
+import com.wilke.metrics.RequestTiming;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,14 +35,68 @@ public class FeedAggregate {
 	public String title;
 	public String description;
 
+	/**
+	 * Time in milliseconds fetching the feeds may take at most, 0 for the default one.
+	 *
+	 * @see com.wilke.CatnapperContext#aggregationDeadline()
+	 */
+	public int deadline;
+
+	/**
+	 * Maximum number of (newest) items combined, 0 for the default number.
+	 *
+	 * @see com.wilke.CatnapperContext#maxItems()
+	 */
+	public int maxItems;
+
+	/**
+	 * Canonical upstream URLs, free of duplicates.
+	 *
+	 * @see #addUrl(String)
+	 */
 	public final List<String> urls = new ArrayList<>();
 
+	/**
+	 * Adds the canonical form of the given URL unless already present.
+	 *
+	 * @see com.wilke.feed.FeedUrls#canonicalize(String)
+	 * @return false if the URL is a duplicate
+	 */
+	public boolean addUrl(final String url) {
+		final String canonical = FeedUrls.canonicalize(url);
+		if (!canonical.equals(url.trim()))
+			log.debug("Url of user feed '{}' canonicalized: {} -> {}", this.identifier, url, canonical);
+		if (this.urls.contains(canonical))
+			return Boolean.FALSE;
+
+		return this.urls.add(canonical);
+	}
+
 	/**
 	 * Immediately starts fetching the feeds represented by the URLs of this feed aggregate object in an asynchronous way.
 	 *
-	 * @see com.wilke.feed.rss.RssFetcher#fetchFeeds(List)
+	 * Feeds not fetched within the deadline of this aggregate are skipped.
+	 *
+	 * @see #deadline
 	 */
 	public Iterable<RssFeed> fetchFeeds() {
+		return this.fetchFeeds(this.deadline > 0 ? this.deadline : CatnapperContext.instance().aggregationDeadline());
+	}
+
+	/**
+	 * @param deadline time in milliseconds fetching may take at most, feeds not fetched by then are skipped
+	 * @see com.wilke.feed.rss.RssFetcher#fetchFeeds(List, long)
+	 */
+	public Iterable<RssFeed> fetchFeeds(final long deadline) {
+		return this.fetchFeeds(deadline, null);
+	}
+
+	/**
+	 * @param deadline time in milliseconds fetching may take at most, feeds not fetched by then are skipped
+	 * @param timing of the request, may be null
+	 * @see com.wilke.feed.rss.RssFetcher#fetchFeeds(List, long, RequestTiming)
+	 */
+	public Iterable<RssFeed> fetchFeeds(final long deadline, final RequestTiming timing) {
 		// prevent recursion by self-reference
 		for (final Iterator<String> iter = this.urls.iterator(); iter.hasNext();) {
 			final String item = iter.next();
@@ -50,6 +106,6 @@ public class FeedAggregate {
 			}
 		}
 
-		return RssFetcher.fetchFeeds(this.urls);
+		return RssFetcher.fetchFeeds(this.urls, deadline, timing);
 	}
 }
@@ -0,0 +1,112 @@
+package com.wilke.feed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global dependency index mapping each canonical upstream URL to the identifiers of the aggregates referencing it.
+ * <p>
+ * The index is updated incrementally, only aggregates whose URLs changed (or which were added / removed) are touched.
+ * Reads are thread-safe, updates are serialized.
+ */
+public final class FeedIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(FeedIndex.class);
+
+	// maps canonical url to the identifiers of its aggregates
+	private final Map<String, Set<String>> dependents = new ConcurrentHashMap<>();
+
+	// maps aggregate identifier to the urls indexed for it
+	private final Map<String, List<String>> indexed = new HashMap<>();
+
+	/**
+	 * Aligns the index with the given aggregates.
+	 */
+	public synchronized void update(final Collection<FeedAggregate> aggregates) {
+		final Map<String, List<String>> current = new HashMap<>();
+		for (final FeedAggregate aggregate : aggregates)
+			current.put(aggregate.identifier, new ArrayList<>(aggregate.urls));
+
+		int changes = 0;
+
+		for (final String identifier : new ArrayList<>(this.indexed.keySet()))
+			if (!current.containsKey(identifier)) {
+				this.unlink(identifier, this.indexed.remove(identifier));
+				changes++;
+			}
+
+		for (final Map.Entry<String, List<String>> entry : current.entrySet())
+			if (this.index(entry.getKey(), entry.getValue()))
+				changes++;
+
+		log.debug("Feed index updated: {} aggregates changed, {} distinct upstream feeds", changes, this.dependents.size());
+	}
+
+	/**
+	 * Updates the index for the given aggregate only, e.g. right after it was saved.
+	 */
+	public synchronized void update(final FeedAggregate aggregate) {
+		if (this.index(aggregate.identifier, new ArrayList<>(aggregate.urls)))
+			log.debug("Feed index updated: aggregate '{}' changed, {} distinct upstream feeds", aggregate.identifier, this.dependents.size());
+	}
+
+	/**
+	 * @return unmodifiable view of all distinct upstream URLs
+	 */
+	public Set<String> urls() {
+		return Collections.unmodifiableSet(this.dependents.keySet());
+	}
+
+	/**
+	 * @return identifiers of all aggregates indexed, a copy
+	 */
+	public synchronized Set<String> identifiers() {
+		return new HashSet<>(this.indexed.keySet());
+	}
+
+	/**
+	 * @return identifiers of the aggregates referencing the given canonical URL
+	 */
+	public Set<String> aggregatesOf(final String url) {
+		final Set<String> identifiers = this.dependents.get(url);
+		return identifiers == null ? Collections.emptySet() : Collections.unmodifiableSet(identifiers);
+	}
+
+	/**
+	 * @return whether the URLs of the given aggregate changed
+	 */
+	private boolean index(final String identifier, final List<String> urls) {
+		final List<String> previous = this.indexed.get(identifier);
+		if (urls.equals(previous))
+			return Boolean.FALSE;
+
+		if (previous != null)
+			this.unlink(identifier, previous);
+		this.link(identifier, urls);
+		this.indexed.put(identifier, urls);
+		return Boolean.TRUE;
+	}
+
+	private void link(final String identifier, final List<String> urls) {
+		for (final String url : urls)
+			this.dependents.computeIfAbsent(url, key -> ConcurrentHashMap.newKeySet()).add(identifier);
+	}
+
+	private void unlink(final String identifier, final List<String> urls) {
+		for (final String url : new HashSet<>(urls))
+			this.dependents.computeIfPresent(url, (key, identifiers) -> {
+				identifiers.remove(identifier);
+				return identifiers.isEmpty() ? null : identifiers;
+			});
+	}
+}
@@ -0,0 +1,134 @@
+package com.wilke.feed;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Canonicalization of upstream feed URLs so that the same source is recognized regardless of how it was entered.
+ * <p>
+ * Scheme and host are lower-cased, default ports and fragments are dropped, query parameters are decoded, sorted
+ * and re-encoded uniformly (parameters without a value such as {@code ?flag} are kept without one). Known aliases
+ * of a host are mapped onto the host itself (e.g. nyaa.se onto nyaa.si), hosts known to support HTTPS are always
+ * requested via HTTPS.
+ */
+public final class FeedUrls {
+
+	private static final Map<String, String> hostAliases = new HashMap<>();
+	static {
+		hostAliases.put("nyaa.se", "nyaa.si");
+		hostAliases.put("www.nyaa.se", "nyaa.si");
+		hostAliases.put("www.nyaa.si", "nyaa.si");
+		hostAliases.put("nyaa.eu", "nyaa.si");
+		hostAliases.put("www.nyaa.eu", "nyaa.si");
+	}
+
+	private static final Set<String> httpsHosts = new HashSet<>(Collections.singletonList("nyaa.si"));
+
+	private FeedUrls() {}
+
+	/**
+	 * @return canonical form of the given URL or the (trimmed) URL itself if it cannot be parsed
+	 */
+	public static String canonicalize(final String url) {
+		final String trimmed = url.trim();
+
+		final URI uri;
+		try {
+			uri = new URI(trimmed);
+		} catch (final URISyntaxException e) {
+			return trimmed;
+		}
+
+		if (uri.getScheme() == null || uri.getHost() == null || uri.isOpaque())
+			return trimmed;
+
+		String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+		String host = uri.getHost().toLowerCase(Locale.ROOT);
+		host = hostAliases.getOrDefault(host, host);
+
+		int port = uri.getPort();
+		if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443))
+			port = -1;
+
+		if ("http".equals(scheme) && httpsHosts.contains(host)) {
+			scheme = "https";
+			if (port == 443)
+				port = -1;
+		}
+
+		final String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+
+		final StringBuilder canonical = new StringBuilder(trimmed.length());
+		canonical.append(scheme).append("://");
+		if (uri.getRawUserInfo() != null)
+			canonical.append(uri.getRawUserInfo()).append('@');
+		canonical.append(host);
+		if (port != -1)
+			canonical.append(':').append(port);
+		canonical.append(path);
+
+		final String query = canonicalizeQuery(uri.getRawQuery());
+		if (!query.isEmpty())
+			canonical.append('?').append(query);
+
+		return canonical.toString(); // fragment dropped, never sent anyway
+	}
+
+	private static String canonicalizeQuery(final String rawQuery) {
+		if (rawQuery == null || rawQuery.isEmpty())
+			return "";
+
+		final List<String[]> params = new ArrayList<>();
+		for (final String param : rawQuery.split("&")) {
+			if (param.isEmpty())
+				continue;
+
+			final int equals = param.indexOf('=');
+			final String key = decode(equals == -1 ? param : param.substring(0, equals));
+			final String value = equals == -1 ? null : decode(param.substring(equals + 1)); // flag without a value
+			params.add(new String[] { key, value });
+		}
+
+		params.sort(Comparator.comparing((String[] param) -> param[0])
+				.thenComparing(param -> param[1], Comparator.nullsFirst(Comparator.naturalOrder())));
+
+		final StringBuilder query = new StringBuilder(rawQuery.length());
+		for (final String[] param : params) {
+			if (query.length() > 0)
+				query.append('&');
+			query.append(encode(param[0]));
+			if (param[1] != null)
+				query.append('=').append(encode(param[1]));
+		}
+
+		return query.toString();
+	}
+
+	private static String decode(final String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (final UnsupportedEncodingException | IllegalArgumentException e) {
+			return value; // malformed escapes, take as is
+		}
+	}
+
+	private static String encode(final String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e); // mandatory for every JRE
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.wilke.feed.rss;
+
+import com.wilke.feed.rss.RssFeed.RssItem;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Result of combining the feeds of an aggregate: their newest items, free of duplicates.
+ * <p>
+ * The validators (entity tag and last modification) are computed from the combined items right away,
+ * so conditional requests can be answered before any XML is generated. The XML itself and its gzip
+ * compressed variant are each built once on first demand and shared by all clients. The XML is kept
+ * as a sequence of buffers, most of them encoded items shared with other combinations.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class CombinedFeed {
+
+	final List<RssFeed> feeds;
+	final List<RssItem> items;
+	final String title;
+	final String description;
+	final String link;
+	final int missing;
+	final int maxItems;
+
+	private final String etag;
+	private final long lastModified;
+
+	private volatile ByteBuffer[] parts;
+	private volatile int contentLength;
+	private volatile byte[] gzipped;
+
+	/**
+	 * @param missing number of feeds of the aggregate left out (failed or not fetched in time)
+	 * @param maxItems maximum number of items kept, 0 for all of them
+	 */
+	CombinedFeed(final List<RssFeed> feeds, final String title, final String description, final String link, final int missing, final int maxItems) {
+		this.feeds = Collections.unmodifiableList(new ArrayList<>(feeds));
+		this.items = Collections.unmodifiableList(RssMerger.merge(this.feeds, maxItems));
+		this.title = title;
+		this.description = description;
+		this.link = link;
+		this.missing = missing;
+		this.maxItems = maxItems;
+
+		final MessageDigest digest = sha256();
+		update(digest, title);
+		update(digest, description);
+		update(digest, link);
+		for (final RssItem item : this.items) { // merged in an order independent of the order feeds were fetched in
+			update(digest, item.guid);
+			update(digest, item.pubDate);
+			if (item.fragment != null)
+				digest.update(item.fragment); // e.g. changed seeders
+		}
+
+		this.etag = toHex(digest.digest(), 16);
+		this.lastModified = this.items.isEmpty() ? -1L : RssDates.parse(this.items.get(0).pubDate); // newest first
+	}
+
+	/**
+	 * @return strong entity tag of the uncompressed representation (quoted)
+	 */
+	public String etag() {
+		return '"' + this.etag + '"';
+	}
+
+	/**
+	 * @return strong entity tag of the gzip compressed representation (quoted)
+	 */
+	public String gzipEtag() {
+		return '"' + this.etag + "-gzip\"";
+	}
+
+	/**
+	 * Tells whether the given "If-None-Match" header matches any representation of this feed.
+	 */
+	public boolean matches(final String ifNoneMatch) {
+		if (ifNoneMatch == null)
+			return Boolean.FALSE;
+
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2); // weak comparison suffices for GET
+			if ("*".equals(tag) || this.etag().equals(tag) || this.gzipEtag().equals(tag))
+				return Boolean.TRUE;
+		}
+
+		return Boolean.FALSE;
+	}
+
+	/**
+	 * @return publication date of the newest item in milliseconds since epoch or -1 if unknown
+	 */
+	public long lastModified() {
+		return this.lastModified;
+	}
+
+	/**
+	 * Tells whether feeds of the aggregate are left out, because they failed or were not fetched in time.
+	 */
+	public boolean isPartial() {
+		return this.missing > 0;
+	}
+
+	/**
+	 * @return number of feeds of the aggregate left out
+	 */
+	public int missing() {
+		return this.missing;
+	}
+
+	/**
+	 * @return uncompressed XML as consecutive buffers backed by arrays, their content must not be modified
+	 */
+	public ByteBuffer[] content() throws XMLStreamException {
+		ByteBuffer[] result = this.parts;
+		if (result == null) {
+			synchronized (this) {
+				result = this.parts;
+				if (result == null) {
+					result = RssCombinator.render(this, RssCombinator.fragments());
+					int length = 0;
+					for (final ByteBuffer part : result)
+						length += part.remaining();
+					this.contentLength = length;
+					this.parts = result;
+				}
+			}
+		}
+
+		final ByteBuffer[] copy = new ByteBuffer[result.length];
+		for (int idx = 0; idx < result.length; idx++)
+			copy[idx] = result[idx].duplicate(); // positions of their own
+		return copy;
+	}
+
+	/**
+	 * @return length in bytes of the uncompressed XML
+	 */
+	public int contentLength() throws XMLStreamException {
+		this.content();
+		return this.contentLength;
+	}
+
+	/**
+	 * @return gzip compressed XML, must not be modified
+	 */
+	public byte[] gzipped() throws XMLStreamException {
+		byte[] result = this.gzipped;
+		if (result == null) {
+			final ByteBuffer[] content = this.content();
+			synchronized (this) {
+				result = this.gzipped;
+				if (result == null)
+					this.gzipped = result = gzip(content);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Tells whether this result was combined from the very same feed instances and aggregate properties.
+	 */
+	boolean isCombinedFrom(final List<RssFeed> feeds, final String title, final String description, final String link,
+			final int missing, final int maxItems) {
+		if (this.feeds.size() != feeds.size()
+				|| this.missing != missing
+				|| this.maxItems != maxItems
+				|| !Objects.equals(this.title, title)
+				|| !Objects.equals(this.description, description)
+				|| !Objects.equals(this.link, link))
+			return Boolean.FALSE;
+
+		final Set<RssFeed> sources = Collections.newSetFromMap(new IdentityHashMap<>());
+		sources.addAll(this.feeds);
+		for (final RssFeed feed : feeds)
+			if (!sources.contains(feed))
+				return Boolean.FALSE;
+
+		return Boolean.TRUE;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // mandatory for every JRE
+		}
+	}
+
+	private static void update(final MessageDigest digest, final String value) {
+		if (value != null)
+			digest.update(value.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0); // separator
+	}
+
+	private static String toHex(final byte[] bytes, final int length) {
+		final StringBuilder hex = new StringBuilder(length * 2);
+		for (int idx = 0; idx < length; idx++)
+			hex.append(Character.forDigit((bytes[idx] >> 4) & 0xF, 16)).append(Character.forDigit(bytes[idx] & 0xF, 16));
+		return hex.toString();
+	}
+
+	private static byte[] gzip(final ByteBuffer[] content) {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+		try (GZIPOutputStream stream = new GZIPOutputStream(buffer, 8192)) {
+			for (final ByteBuffer part : content)
+				stream.write(part.array(), part.arrayOffset() + part.position(), part.remaining());
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e); // not expected for in-memory streams
+		}
+		return buffer.toByteArray();
+	}
+}
@@ -1,24 +1,226 @@
 package com.wilke.feed.rss;
 
+import com.wilke.CatnapperContext;
 import com.wilke.feed.FeedAggregate;
 import com.wilke.feed.rss.RssFeed.RssChannel;
 import com.wilke.feed.rss.RssFeed.RssItem;
+import com.wilke.metrics.Counter;
+import com.wilke.metrics.FlightEvents;
+import com.wilke.metrics.Histogram;
+import com.wilke.metrics.Metrics;
+import com.wilke.metrics.RequestTiming;
+import com.wilke.metrics.RequestTiming.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class RssCombinator {
 
+	private static final Logger log = LoggerFactory.getLogger(RssCombinator.class);
+
 	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
 
+	private static final byte[] FOOTER = ("</" + RssChannel.CHANNEL + "></" + RssFeed.RSS + ">").getBytes(StandardCharsets.UTF_8);
+
+	// maps feed identifier to its latest combination
+	private static final Map<String, CombinedFeed> combined = new ConcurrentHashMap<>();
+
+	// maps feed identifier to its combination in progress
+	private static final Map<String, CompletableFuture<CombinedFeed>> inFlight = new ConcurrentHashMap<>();
+	private static final LongAdder coalescedAggregations = new LongAdder();
+
+	private static final Histogram aggregateSeconds = Metrics.registry().histogram("catnapper_aggregate_seconds",
+			"Time combining a user feed, waiting for its upstream feeds included");
+	private static final Counter partialAggregations = Metrics.registry().counter("catnapper_aggregations_partial_total",
+			"Combined user feeds missing upstream feeds");
+	private static final Histogram renderSeconds = Metrics.registry().histogram("catnapper_render_seconds",
+			"Time rendering a combined feed to XML");
+
+	/**
+	 * Same as {@link #combineFeed(FeedAggregate, long)} with the deadline of the aggregate.
+	 *
+	 * @see FeedAggregate#deadline
+	 */
+	public static CombinedFeed combineFeed(final FeedAggregate aggregate) {
+		return combineFeed(aggregate, aggregate.deadline > 0 ? aggregate.deadline : CatnapperContext.instance().aggregationDeadline());
+	}
+
+	/**
+	 * Combines the feeds of the given aggregate. No XML is generated until requested.
+	 * As long as neither the fetched feeds nor the aggregate change, the previous result (and its serialization) is returned.
+	 * Concurrent calls for the same aggregate and deadline share a single combination.
+	 * <p>
+	 * Feeds not fetched within the deadline are left out, the result is {@link CombinedFeed#isPartial() partial} then.
+	 *
+	 * @param deadline in milliseconds
+	 */
+	public static CombinedFeed combineFeed(final FeedAggregate aggregate, final long deadline) {
+		return combineFeed(aggregate, deadline, null);
+	}
+
+	/**
+	 * Same as {@link #combineFeed(FeedAggregate, long)}, recording the time spent waiting for upstream feeds
+	 * (or for an identical combination in progress) and parsing them.
+	 *
+	 * @param deadline in milliseconds
+	 * @param timing of the request, may be null
+	 */
+	public static CombinedFeed combineFeed(final FeedAggregate aggregate, final long deadline, final RequestTiming timing) {
+		final String key = aggregate.identifier + '@' + deadline;
+		final CompletableFuture<CombinedFeed> created = new CompletableFuture<>();
+		final CompletableFuture<CombinedFeed> existing = inFlight.putIfAbsent(key, created);
+		if (existing != null) {
+			coalescedAggregations.increment();
+			final long start = System.nanoTime();
+			try {
+				return existing.join();
+			} catch (final CompletionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw e;
+			} finally {
+				if (timing != null) {
+					timing.coalesced();
+					timing.addSince(Phase.FETCH, start);
+				}
+			}
+		}
+
+		try {
+			final CombinedFeed result = combine(aggregate, deadline, timing);
+			created.complete(result);
+			return result;
+		} catch (final RuntimeException | Error e) {
+			created.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, created);
+		}
+	}
+
+	/**
+	 * Drops the latest combinations of aggregates no longer in the store.
+	 *
+	 * @param identifiers of the aggregates in the store
+	 */
+	public static void retain(final Set<String> identifiers) {
+		combined.keySet().retainAll(identifiers);
+	}
+
+	/**
+	 * @return number of requests that joined an identical combination already in progress
+	 */
+	public static long coalescedAggregations() {
+		return coalescedAggregations.sum();
+	}
+
+	private static CombinedFeed combine(final FeedAggregate aggregate, final long deadline, final RequestTiming timing) {
+		final FlightEvents.Aggregation event = FlightEvents.get().beginAggregation();
+		final long start = System.nanoTime();
+		final List<RssFeed> feeds = new ArrayList<>();
+		for (final RssFeed feed : aggregate.fetchFeeds(deadline, timing))
+			feeds.add(feed);
+		aggregateSeconds.observeSince(start);
+		if (timing != null)
+			timing.addSince(Phase.FETCH, start);
+
+		final int missing = Math.max(0, aggregate.urls.size() - feeds.size());
+		final int maxItems = maxItems(aggregate);
+		if (missing > 0) {
+			partialAggregations.increment();
+			log.info("User feed '{}' is partial, {} of {} feeds missing", aggregate.identifier, missing, aggregate.urls.size());
+		}
+		if (event != null)
+			event.record(aggregate.identifier, aggregate.urls.size(), missing);
+
+		final CombinedFeed previous = combined.get(aggregate.identifier);
+		if (previous != null && previous.isCombinedFrom(feeds, aggregate.title, aggregate.description, aggregate.link, missing, maxItems))
+			return previous;
+
+		final CombinedFeed result = new CombinedFeed(feeds, aggregate.title, aggregate.description, aggregate.link, missing, maxItems);
+		combined.put(aggregate.identifier, result);
+		return result;
+	}
+
 	public static void aggregateFeed(final OutputStream stream, final FeedAggregate aggregate) throws XMLStreamException {
-		final Iterable<RssFeed> feeds = aggregate.fetchFeeds();
-		final XMLStreamWriter writer = outputFactory.createXMLStreamWriter(stream);
+		final FlightEvents.Aggregation event = FlightEvents.get().beginAggregation();
+		final long start = System.nanoTime();
+		final List<RssFeed> feeds = new ArrayList<>();
+		for (final RssFeed feed : aggregate.fetchFeeds())
+			feeds.add(feed);
+		aggregateSeconds.observeSince(start);
+
+		final int missing = Math.max(0, aggregate.urls.size() - feeds.size());
+		if (missing > 0)
+			partialAggregations.increment();
+		if (event != null)
+			event.record(aggregate.identifier, aggregate.urls.size(), missing);
+
+		writeFeed(stream, new CombinedFeed(feeds, aggregate.title, aggregate.description, aggregate.link, missing, maxItems(aggregate)));
+	}
+
+	/**
+	 * @return maximum number of items of the given aggregate (or the default one), 0 for all of them
+	 */
+	static int maxItems(final FeedAggregate aggregate) {
+		return aggregate.maxItems > 0 ? aggregate.maxItems : CatnapperContext.instance().maxItems();
+	}
+
+	static void writeFeed(final OutputStream stream, final CombinedFeed aggregate) throws XMLStreamException {
+		try {
+			for (final ByteBuffer part : render(aggregate, fragments()))
+				stream.write(part.array(), part.arrayOffset() + part.position(), part.remaining());
+			stream.flush();
+		} catch (final IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	/**
+	 * Renders the given combination as a sequence of buffers: the channel header, every item and the footer.
+	 *
+	 * @param fragments cache of encoded items, null to encode all of them
+	 * @return buffers backed by arrays, some of them shared and thus not to be modified
+	 */
+	static ByteBuffer[] render(final CombinedFeed aggregate, final RssItemFragments fragments) throws XMLStreamException {
+		final long start = System.nanoTime();
+		final ByteBuffer[] parts = new ByteBuffer[aggregate.items.size() + 2];
+		parts[0] = ByteBuffer.wrap(header(aggregate));
+
+		int idx = 1;
+		for (final RssItem item : aggregate.items)
+			parts[idx++] = fragments != null ? fragments.fragment(item) : ByteBuffer.wrap(RssItemFragments.encode(item));
+
+		parts[idx] = ByteBuffer.wrap(FOOTER);
+		renderSeconds.observeSince(start);
+		return parts;
+	}
+
+	/**
+	 * @return XML declaration and the channel up to its first item
+	 */
+	private static byte[] header(final CombinedFeed aggregate) throws XMLStreamException {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream(512);
+		final XMLStreamWriter writer = outputFactory.createXMLStreamWriter(stream, "UTF-8");
 
 		try {
-			writer.writeStartDocument();
+			writer.writeStartDocument("UTF-8", "1.0");
 			writer.writeStartElement(RssFeed.RSS);
 			writer.writeAttribute(RssFeed.VERSION_ATTRIBUTE, RssFeed.VERSION_VALUE);
 			writer.writeNamespace("atom", "http://www.w3.org/2005/Atom"); // interoperability
@@ -41,43 +243,19 @@ public class RssCombinator {
 			writer.writeCharacters(aggregate.description);
 			writer.writeEndElement();
 
-            for (final RssFeed feed : feeds) {
-				for (final RssItem item : feed.channel.items) {
-					writer.writeStartElement(RssItem.ITEM);
-	
-					writer.writeStartElement(RssItem.TITLE);
-					writer.writeCharacters(item.title);
-					writer.writeEndElement();
-	
-					writer.writeStartElement(RssItem.CATEGORY);
-					writer.writeCharacters(item.category);
-					writer.writeEndElement();
-	
-					writer.writeStartElement(RssItem.LINK);
-					writer.writeCharacters(item.link);
-					writer.writeEndElement();
-	
-					writer.writeStartElement(RssItem.GUID);
-					writer.writeCharacters(item.guid);
-					writer.writeEndElement();
-	
-					writer.writeStartElement(RssItem.DESCRIPTION);
-					writer.writeCData("<a href=\"" + item.link + "\" />" + item.title + "</a>");
-					writer.writeEndElement();
-	
-					writer.writeStartElement(RssItem.PUBDATE);
-					writer.writeCharacters(item.pubDate);
-					writer.writeEndElement();
-	
-					writer.writeEndElement();
-				}
-			}
-	
-			writer.writeEndDocument(); // closing of open tags is automagically done
-			writer.flush(); // always flush internal stream buffer
+			writer.flush(); // channel and rss are closed by the footer
 		} finally {
-			if (writer != null)
-				writer.close();
+			writer.close();
 		}
+
+		return stream.toByteArray();
+	}
+
+	/**
+	 * @return shared cache of encoded items or null if there is none (yet)
+	 */
+	static RssItemFragments fragments() {
+		final CatnapperContext context = CatnapperContext.instance();
+		return context == null ? null : context.itemFragments();
 	}
 }
@@ -0,0 +1,185 @@
+package com.wilke.feed.rss;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Helper for the RFC-822 dates used by RSS (e.g. {@code pubDate}).
+ * <p>
+ * The usual shape "Sat, 07 Sep 2002 09:42:31 +0000" (numeric offset, GMT, UT, Z or a North American zone such as EST)
+ * is parsed by hand, everything else by {@link DateTimeFormatter#RFC_1123_DATE_TIME}. Results are cached since the very same
+ * dates are seen again with every refresh of a feed.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class RssDates {
+
+	/**
+	 * Number of cached dates, the cache is simply cleared once exceeded.
+	 */
+	private static final int CACHE_SIZE = 8192;
+
+	private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+	// rejects rather than adjusts invalid dates such as 31 Feb, as the hand-written parser does
+	private static final DateTimeFormatter formatter = DateTimeFormatter.RFC_1123_DATE_TIME.withResolverStyle(ResolverStyle.STRICT);
+
+	// maps date string to milliseconds since epoch
+	private static final Map<String, Long> cache = new ConcurrentHashMap<>();
+
+	private RssDates() {}
+
+	/**
+	 * @return milliseconds since epoch or -1 if the given value is missing or malformed
+	 */
+	public static long parse(final String value) {
+		if (value == null || value.isEmpty())
+			return -1L;
+
+		final Long cached = cache.get(value);
+		if (cached != null)
+			return cached;
+
+		long millis = parseFast(value.trim());
+		if (millis == Long.MIN_VALUE)
+			millis = parseFormatted(value.trim());
+
+		if (cache.size() >= CACHE_SIZE)
+			cache.clear();
+		cache.put(value, millis);
+
+		return millis;
+	}
+
+	private static long parseFormatted(final String value) {
+		try {
+			return ZonedDateTime.parse(value, formatter).toInstant().toEpochMilli();
+		} catch (final DateTimeParseException e) {
+			return -1L;
+		}
+	}
+
+	/**
+	 * @return milliseconds since epoch or {@link Long#MIN_VALUE} if not of the usual shape
+	 */
+	static long parseFast(final String value) {
+		int pos = 0;
+		final int comma = value.indexOf(',');
+		if (comma >= 0)
+			pos = skipSpaces(value, comma + 1); // day of week is redundant
+
+		// day of month: 1 or 2 digits
+		int end = pos;
+		while (end < value.length() && isDigit(value.charAt(end)))
+			end++;
+		if (end == pos || end - pos > 2)
+			return Long.MIN_VALUE;
+		final int day = number(value, pos, end);
+
+		pos = skipSpaces(value, end);
+		if (pos + 3 > value.length())
+			return Long.MIN_VALUE;
+		final int month = MONTHS.indexOf(value.substring(pos, pos + 3));
+		if (month < 0 || month % 3 != 0)
+			return Long.MIN_VALUE;
+
+		pos = skipSpaces(value, pos + 3);
+		end = pos;
+		while (end < value.length() && isDigit(value.charAt(end)))
+			end++;
+		if (end - pos != 4 && end - pos != 2)
+			return Long.MIN_VALUE;
+		int year = number(value, pos, end);
+		if (end - pos == 2)
+			year += year < 50 ? 2000 : 1900; // as of RFC 2822, the formatter would take them literally
+
+		// time: HH:mm or HH:mm:ss
+		pos = skipSpaces(value, end);
+		if (pos + 5 > value.length() || value.charAt(pos + 2) != ':'
+				|| !isDigits(value, pos, pos + 2) || !isDigits(value, pos + 3, pos + 5))
+			return Long.MIN_VALUE;
+		final int hour = number(value, pos, pos + 2);
+		final int minute = number(value, pos + 3, pos + 5);
+		int second = 0;
+		pos += 5;
+		if (pos + 3 <= value.length() && value.charAt(pos) == ':') {
+			if (!isDigits(value, pos + 1, pos + 3))
+				return Long.MIN_VALUE;
+			second = number(value, pos + 1, pos + 3);
+			pos += 3;
+		}
+
+		pos = skipSpaces(value, pos);
+		final String zone = value.substring(pos);
+		final int offset; // in minutes
+		if ("GMT".equals(zone) || "UT".equals(zone) || "UTC".equals(zone) || "Z".equals(zone)) {
+			offset = 0;
+		} else if (zone.length() == 5 && (zone.charAt(0) == '+' || zone.charAt(0) == '-') && isDigits(zone, 1, 5)) {
+			final int minutes = number(zone, 1, 3) * 60 + number(zone, 3, 5);
+			offset = zone.charAt(0) == '-' ? -minutes : minutes;
+		} else {
+			offset = namedZone(zone);
+			if (offset == Integer.MIN_VALUE)
+				return Long.MIN_VALUE; // left to the formatter
+		}
+
+		if (hour > 23 || minute > 59 || second > 60)
+			return Long.MIN_VALUE;
+
+		final long epochDay;
+		try {
+			epochDay = LocalDate.of(year, month / 3 + 1, day).toEpochDay();
+		} catch (final RuntimeException e) {
+			return Long.MIN_VALUE; // e.g. 31 Feb
+		}
+
+		return ((epochDay * 24L + hour) * 60L + minute - offset) * 60_000L + Math.min(second, 59) * 1000L;
+	}
+
+	/**
+	 * @return offset in minutes of the given RFC-822 zone name, unknown to {@link DateTimeFormatter#RFC_1123_DATE_TIME},
+	 *         or {@link Integer#MIN_VALUE} if none
+	 */
+	private static int namedZone(final String zone) {
+		switch (zone) {
+			case "EDT": return -4 * 60;
+			case "EST":
+			case "CDT": return -5 * 60;
+			case "CST":
+			case "MDT": return -6 * 60;
+			case "MST":
+			case "PDT": return -7 * 60;
+			case "PST": return -8 * 60;
+			default: return Integer.MIN_VALUE;
+		}
+	}
+
+	private static int skipSpaces(final String value, int pos) {
+		while (pos < value.length() && value.charAt(pos) == ' ')
+			pos++;
+		return pos;
+	}
+
+	private static boolean isDigit(final char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isDigits(final String value, final int from, final int to) {
+		for (int idx = from; idx < to; idx++)
+			if (!isDigit(value.charAt(idx)))
+				return Boolean.FALSE;
+		return Boolean.TRUE;
+	}
+
+	private static int number(final String value, final int from, final int to) {
+		int result = 0;
+		for (int idx = from; idx < to; idx++)
+			result = result * 10 + (value.charAt(idx) - '0');
+		return result;
+	}
+}
@@ -11,6 +11,12 @@ public class RssFeed {
 
 	public RssChannel channel;
 
+	/**
+	 * Validators of the HTTP response this feed was parsed from, used for conditional requests.
+	 */
+	public transient String etag;
+	public transient String lastModified;
+
 	public static class RssChannel {
 		public static final String CHANNEL = "channel";
 		public static final String TITLE = "title";
@@ -39,5 +45,14 @@ public class RssFeed {
 		public String guid;
 		public String description;
 		public String pubDate;
+
+		/**
+		 * UTF-8 encoded {@code <item>} element as written to combined feeds, taken from the upstream bytes as is
+		 * (with the torrent link injected as description). Only present if parsed in passthrough mode,
+		 * description and category are not extracted then.
+		 *
+		 * @see RssParser#parseFeed(byte[], boolean)
+		 */
+		public transient byte[] fragment;
 	}
 }
@@ -0,0 +1,272 @@
+package com.wilke.feed.rss;
+
+import com.wilke.feed.rss.RssFeed.RssChannel;
+import com.wilke.feed.rss.RssFeed.RssItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-memory cache of parsed feeds keyed by their upstream URL.
+ * <p>
+ * The capacity is given in (estimated) bytes rather than in number of entries.
+ * Once exceeded the least frequently used entries are evicted, ties are broken by the last access.
+ * Access frequencies are halved from time to time so that formerly popular feeds do not stick forever.
+ * <p>
+ * Entries younger than the TTL are fresh. Entries beyond the TTL but still within the stale window
+ * are returned right away while a single background refresh is run. Anything older is a miss.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class RssFeedCache {
+
+	private static final Logger log = LoggerFactory.getLogger(RssFeedCache.class);
+
+	/**
+	 * Number of recorded accesses after which all frequencies are halved.
+	 */
+	private static final int AGING_PERIOD = 10_000;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong weight = new AtomicLong();
+	private final AtomicLong accesses = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder staleHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private final long maxWeight;
+	private final long ttl;
+	private final long staleWindow;
+
+	/**
+	 * @param maxWeight maximum estimated size in bytes
+	 * @param ttl time in milliseconds an entry is considered fresh
+	 * @param staleWindow time in milliseconds beyond the TTL an entry may still be served while being refreshed
+	 * @exception IllegalArgumentException if maxWeight < 1 or ttl / staleWindow < 0
+	 */
+	public RssFeedCache(final long maxWeight, final long ttl, final long staleWindow) {
+		if (maxWeight < 1 || ttl < 0 || staleWindow < 0)
+			throw new IllegalArgumentException();
+
+		this.maxWeight   = maxWeight;
+		this.ttl         = ttl;
+		this.staleWindow = staleWindow;
+	}
+
+	/**
+	 * Returns the cached entry of the given URL unless it is missing or expired.
+	 * A stale entry triggers a background refresh using the given loader, which is expected to {@link #put} the refreshed feed.
+	 */
+	public RssFeed get(final String url, final Supplier<CompletableFuture<RssFeed>> loader) {
+		final Entry entry = this.entries.get(url);
+		final long now = System.currentTimeMillis();
+
+		if (entry == null || entry.isExpired(now)) {
+			this.misses.increment();
+			return null;
+		}
+
+		this.touch(entry, now);
+
+		if (entry.isStale(now)) {
+			this.staleHits.increment();
+			this.refresh(url, entry, loader);
+		} else {
+			this.hits.increment();
+		}
+
+		return entry.feed;
+	}
+
+	/**
+	 * Returns the cached entry of the given URL regardless of its age, for snapshots kept up to date by other means.
+	 *
+	 * @see com.wilke.feed.rss.RssRefresher
+	 */
+	public RssFeed peek(final String url) {
+		final Entry entry = this.entries.get(url);
+
+		if (entry == null) {
+			this.misses.increment();
+			return null;
+		}
+
+		this.touch(entry, System.currentTimeMillis());
+		this.hits.increment();
+		return entry.feed;
+	}
+
+	/**
+	 * Returns the cached entry of the given URL regardless of its age without recording an access.
+	 */
+	RssFeed latest(final String url) {
+		final Entry entry = this.entries.get(url);
+		return entry == null ? null : entry.feed;
+	}
+
+	/**
+	 * Adds or replaces the feed of the given URL and evicts other entries if the capacity is exceeded.
+	 * Feeds heavier than the entire capacity are not cached at all.
+	 */
+	public void put(final String url, final RssFeed feed) {
+		final long feedWeight = weigh(url, feed);
+		if (feedWeight > this.maxWeight) {
+			log.debug("Feed '{}' exceeds cache capacity ({} bytes)", url, feedWeight);
+			return;
+		}
+
+		final Entry entry = new Entry(feed, feedWeight, System.currentTimeMillis());
+		final Entry previous = this.entries.put(url, entry);
+		if (previous != null) {
+			entry.frequency = previous.frequency; // keep popularity across refreshes
+			this.weight.addAndGet(-previous.weight);
+		}
+
+		if (this.weight.addAndGet(feedWeight) > this.maxWeight)
+			this.evict();
+	}
+
+	public void invalidate(final String url) {
+		final Entry entry = this.entries.remove(url);
+		if (entry != null)
+			this.weight.addAndGet(-entry.weight);
+	}
+
+	public long hitCount() {
+		return this.hits.sum();
+	}
+
+	public long staleHitCount() {
+		return this.staleHits.sum();
+	}
+
+	public long missCount() {
+		return this.misses.sum();
+	}
+
+	public long evictionCount() {
+		return this.evictions.sum();
+	}
+
+	public long weight() {
+		return this.weight.get();
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RssFeedCache[size=%d, weight=%d, hits=%d, staleHits=%d, misses=%d, evictions=%d]",
+				this.size(), this.weight(), this.hitCount(), this.staleHitCount(), this.missCount(), this.evictionCount());
+	}
+
+	private void refresh(final String url, final Entry entry, final Supplier<CompletableFuture<RssFeed>> loader) {
+		if (!entry.refreshing.compareAndSet(Boolean.FALSE, Boolean.TRUE))
+			return; // only one refresh per entry
+
+		loader.get().whenComplete((feed, e) -> {
+			if (e != null)
+				log.debug("Background refresh of '{}' failed: {}", url, e.toString());
+			entry.refreshing.set(Boolean.FALSE);
+		});
+	}
+
+	private void touch(final Entry entry, final long now) {
+		entry.frequency++; // racy by intention, an approximation suffices
+		entry.lastAccess = now;
+
+		if (this.accesses.incrementAndGet() % AGING_PERIOD == 0)
+			for (final Entry each : this.entries.values())
+				each.frequency >>>= 1;
+	}
+
+	private synchronized void evict() {
+		while (this.weight.get() > this.maxWeight) {
+			String victimUrl = null;
+			Entry victim = null;
+
+			for (final Map.Entry<String, Entry> candidate : this.entries.entrySet()) {
+				final Entry entry = candidate.getValue();
+				if (victim == null
+						|| entry.frequency < victim.frequency
+						|| (entry.frequency == victim.frequency && entry.lastAccess < victim.lastAccess)) {
+					victimUrl = candidate.getKey();
+					victim = entry;
+				}
+			}
+
+			if (victim == null)
+				return;
+
+			if (this.entries.remove(victimUrl, victim)) {
+				this.weight.addAndGet(-victim.weight);
+				this.evictions.increment();
+				log.debug("Evicted '{}' from cache", victimUrl);
+			}
+		}
+	}
+
+	/**
+	 * Rough estimation of the heap occupied by the given feed (UTF-16 strings, fragments plus object overhead).
+	 */
+	static long weigh(final String url, final RssFeed feed) {
+		long bytes = 64L + weigh(url);
+
+		final RssChannel channel = feed.channel;
+		if (channel != null) {
+			bytes += 64L + weigh(channel.title) + weigh(channel.link) + weigh(channel.description);
+
+			for (final RssItem item : channel.items)
+				bytes += 48L
+						+ weigh(item.title)
+						+ weigh(item.category)
+						+ weigh(item.link)
+						+ weigh(item.guid)
+						+ weigh(item.description)
+						+ weigh(item.pubDate)
+						+ (item.fragment == null ? 0L : 16L + item.fragment.length);
+		}
+
+		return bytes;
+	}
+
+	private static long weigh(final String value) {
+		return value == null ? 0L : 40L + 2L * value.length();
+	}
+
+	private final class Entry {
+		final RssFeed feed;
+		final long weight;
+		final long loadedAt;
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		volatile int frequency;
+		volatile long lastAccess;
+
+		Entry(final RssFeed feed, final long weight, final long loadedAt) {
+			this.feed = feed;
+			this.weight = weight;
+			this.loadedAt = loadedAt;
+			this.lastAccess = loadedAt;
+		}
+
+		boolean isStale(final long now) {
+			return now - this.loadedAt >= RssFeedCache.this.ttl;
+		}
+
+		boolean isExpired(final long now) {
+			return now - this.loadedAt >= RssFeedCache.this.ttl + RssFeedCache.this.staleWindow;
+		}
+	}
+}
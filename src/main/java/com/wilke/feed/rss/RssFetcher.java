@@ -1,34 +1,89 @@
 package com.wilke.feed.rss;
 
 import com.wilke.CatnapperContext;
+import com.wilke.http.HostHealth;
+import com.wilke.http.HostScheduler;
+import com.wilke.http.UpstreamClient;
+import com.wilke.http.UpstreamRequest;
+import com.wilke.http.UpstreamResponse;
+import com.wilke.metrics.Counter;
+import com.wilke.metrics.FlightEvents;
+import com.wilke.metrics.Histogram;
+import com.wilke.metrics.Metrics;
+import com.wilke.metrics.RequestTiming;
+import com.wilke.metrics.RequestTiming.Phase;
+import com.wilke.storage.ItemHistory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.CompletionService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 public class RssFetcher {
 
     private static final Logger log = LoggerFactory.getLogger(RssFetcher.class);
 
-    private static final ExecutorService executor = CatnapperContext.instance().asyncExecutorService();
+    private static final HostScheduler scheduler = CatnapperContext.instance().hostScheduler();
+
+    private static final RssFeedCache cache = CatnapperContext.instance().feedCache();
+
+    private static final RssRefresher refresher = CatnapperContext.instance().feedRefresher();
+
+    private static final UpstreamClient client = CatnapperContext.instance().upstreamClient();
+
+    private static final HostHealth health = CatnapperContext.instance().hostHealth();
+
+    private static final ItemHistory history = CatnapperContext.instance().itemHistory();
+
+    private static final boolean passthrough = CatnapperContext.instance().itemPassthrough();
+
+    private static final RssProjection projection = CatnapperContext.instance().feedProjection();
+
+    private static final ExecutorService hedgeExecutor = CatnapperContext.instance().hedgeExecutorService();
+
+    // maps upstream url to its fetch in progress
+    private static final Map<String, Fetch> inFlight = new ConcurrentHashMap<>();
+    private static final LongAdder coalescedFetches = new LongAdder();
+    private static final LongAdder hedgedFetches = new LongAdder();
+    private static final LongAdder abandonedFetches = new LongAdder();
+
+    private static final LongAdder compressedBytes = new LongAdder();
+    private static final LongAdder uncompressedBytes = new LongAdder();
+
+    private static final Metrics.Family<Histogram> fetchSeconds = Metrics.registry().histograms("catnapper_fetch_seconds",
+            "Time fetching an upstream feed per host, attempts, hedging and parsing included", "host");
+    private static final Metrics.Family<Counter> fetchFailures = Metrics.registry().counters("catnapper_fetch_failures_total",
+            "Failed fetches of upstream feeds per host", "host");
+    private static final Histogram fetchQueueSeconds = Metrics.registry().histogram("catnapper_fetch_queue_seconds",
+            "Time a fetch waits in its host's queue and for a worker thread");
 
     /**
      * Timeout in milliseconds to be used when opening a communications link to a given URL.
@@ -40,81 +95,410 @@ public class RssFetcher {
      */
     public static final int readTimeout = 5000;
 
+    /**
+     * Same as {@link #fetchFeeds(List, long)} with the default deadline.
+     *
+     * @see CatnapperContext#aggregationDeadline()
+     */
+    public static Iterable<RssFeed> fetchFeeds(final List<String> urls) {
+        return fetchFeeds(urls, CatnapperContext.instance().aggregationDeadline());
+    }
+
     /**
      * No automatic feed type recognition, RSS 2.0 via HTTP/S is expected!
      * <p>
      * The iterator returned is not thread-safe.
-     * Its {@link java.util.Iterator#hasNext()} and {@link java.util.Iterator#next()} methods may block for {@value #connectTimeout}+{@value #readTimeout} milliseconds at most.
+     * Its {@link java.util.Iterator#hasNext()} and {@link java.util.Iterator#next()} methods block until the given deadline at most,
+     * counted from this call. Feeds still outstanding by then are skipped (or served from the item history)
+     * and their fetches abandoned.
+     * <p>
+     * Feeds found in the {@link RssFeedCache} are served right away, only missing ones are fetched.
+     * If background refreshing is enabled the latest snapshots are served as they are, without revalidation.
+     * Feeds not polled yet or evicted from the cache meanwhile are fetched like any other missing feed.
+     * <p>
+     * If the {@link ItemHistory} is enabled, each feed is served from there, i.e. with all the items retained
+     * rather than the current upstream window only. Feeds failed or not fetched in time are served from there as well.
+     *
+     * @param deadline in milliseconds
      */
-    public static Iterable<RssFeed> fetchFeeds(final List<String> urls) {
-        final CompletionService<RssFeed> collector = new ExecutorCompletionService<>(executor);
+    public static Iterable<RssFeed> fetchFeeds(final List<String> urls, final long deadline) {
+        return fetchFeeds(urls, deadline, null);
+    }
+
+    /**
+     * Same as {@link #fetchFeeds(List, long)}, recording the upstream feeds and the time spent parsing them.
+     *
+     * @param timing of the request, may be null
+     */
+    public static Iterable<RssFeed> fetchFeeds(final List<String> urls, final long deadline, final RequestTiming timing) {
+        final long start = System.nanoTime();
+        final long expiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline);
+        final BlockingQueue<Future<RssFeed>> collector = new LinkedBlockingQueue<>();
+        final Map<String, CompletableFuture<RssFeed>> outstanding = new ConcurrentHashMap<>();
+
+        for (final String url : urls) {
+            // polled in the background anyway, no need to revalidate stale feeds
+            final RssFeed cached = Objects.nonNull(refresher) ? cache.peek(url) : cache.get(url, () -> fetchFeed(url));
+            if (Objects.nonNull(cached)) {
+                if (Objects.nonNull(timing))
+                    timing.cached();
+                collector.add(CompletableFuture.completedFuture(served(url, cached)));
+            } else {
+                final CompletableFuture<RssFeed> future = fetchFeed(url, timing);
+                outstanding.put(url, future);
+                future.whenComplete((feed, e) -> {
+                    if (Objects.isNull(outstanding.remove(url)))
+                        return; // given up on by the iterator
+
+                    if (Objects.nonNull(timing))
+                        timing.upstream(url, System.nanoTime() - start, Objects.nonNull(e));
+
+                    final RssFeed result = served(url, feed);
+                    collector.add(Objects.nonNull(result) ? CompletableFuture.completedFuture(result) : future);
+                });
+            }
+        }
+
+        return () -> new RssFeedIterator(collector, urls.size(), expiry, outstanding, timing);
+    }
+
+    /**
+     * @return the history of the given URL if enabled and known, the given feed (may be null) otherwise
+     */
+    private static RssFeed served(final String url, final RssFeed feed) {
+        if (Objects.isNull(history))
+            return feed;
+
+        final RssFeed retained = history.feed(url);
+        return Objects.nonNull(retained) ? retained : feed;
+    }
+
+    /**
+     * Fetches the given feed asynchronously and puts it into the cache (and the item history).
+     * Concurrent calls for the same URL share a single fetch, each of them may {@link #abandon} it.
+     */
+    static CompletableFuture<RssFeed> fetchFeed(final String url) {
+        return fetchFeed(url, null);
+    }
+
+    /**
+     * Same as {@link #fetchFeed(String)}, adding the time spent parsing to the given timing once fetched.
+     *
+     * @param timing of the request, may be null
+     */
+    private static CompletableFuture<RssFeed> fetchFeed(final String url, final RequestTiming timing) {
+        for (;;) {
+            final Fetch created = new Fetch();
+            final Fetch existing = inFlight.putIfAbsent(url, created);
+            if (Objects.nonNull(existing)) {
+                if (existing.interest.getAndUpdate(count -> count == 0 ? 0 : count + 1) == 0) {
+                    inFlight.remove(url, existing); // abandoned by everyone meanwhile
+                    continue;
+                }
+                coalescedFetches.increment();
+                parsed(existing, timing);
+                return existing.result;
+            }
+
+            // queued per host, at most a few fetches hit the same host at a time
+            parsed(created, timing);
+            created.task = scheduler.submit(hostOf(url), new RssFetchTask(url, created));
+            created.task.whenComplete((feed, e) -> {
+                if (Objects.isNull(e)) {
+                    cache.put(url, feed); // even if abandoned, the next request benefits
+                    if (Objects.nonNull(history))
+                        history.append(url, feed);
+                }
+                inFlight.remove(url, created);
+                if (Objects.isNull(e))
+                    created.result.complete(feed);
+                else
+                    created.result.completeExceptionally(e);
+            });
+
+            return created.result;
+        }
+    }
+
+    /**
+     * Gives up interest in the given fetch returned by {@link #fetchFeed(String)}.
+     * Once nobody is interested anymore, the fetch is dropped unless it has been started already.
+     */
+    static void abandon(final String url, final CompletableFuture<RssFeed> future) {
+        final Fetch fetch = inFlight.get(url);
+        if (Objects.isNull(fetch) || fetch.result != future)
+            return; // completed meanwhile
+
+        if (fetch.interest.decrementAndGet() == 0) {
+            inFlight.remove(url, fetch);
+            abandonedFetches.increment();
+            scheduler.cancel(hostOf(url), fetch.task); // a fetch already running still fills the cache
+            fetch.result.cancel(Boolean.FALSE);
+        }
+    }
+
+    /**
+     * @return number of fetches nobody waited for anymore
+     */
+    public static long abandonedFetches() {
+        return abandonedFetches.sum();
+    }
+
+    private static void parsed(final Fetch fetch, final RequestTiming timing) {
+        if (Objects.nonNull(timing))
+            fetch.result.thenRun(() -> timing.add(Phase.PARSE, fetch.parseTime));
+    }
 
-        for (final String url : urls)
-            collector.submit(new RssFetchTask(url));
+    /**
+     * Shared fetch of a single URL with the number of its interested callers.
+     */
+    private static final class Fetch {
+        final CompletableFuture<RssFeed> result = new CompletableFuture<>();
+        final AtomicInteger interest = new AtomicInteger(1);
+        volatile CompletableFuture<RssFeed> task;
+        volatile long parseTime; // nanoseconds, 0 if not modified
+    }
+
+    /**
+     * @return lower case host of the given URL or an empty string if malformed
+     */
+    static String hostOf(final String url) {
+        try {
+            final String host = new URI(url).getHost();
+            return Objects.isNull(host) ? "" : host.toLowerCase();
+        } catch (final URISyntaxException e) {
+            return "";
+        }
+    }
 
-        return () -> new RssFeedIterator(collector, urls.size());
+    /**
+     * @return number of fetches that joined an identical fetch already in progress
+     */
+    public static long coalescedFetches() {
+        return coalescedFetches.sum();
+    }
+
+    /**
+     * @return number of fetches duplicated since the first attempt ran past the p95 latency of its host
+     */
+    public static long hedgedFetches() {
+        return hedgedFetches.sum();
     }
 
     private static class RssFetchTask implements Callable<RssFeed> {
-        private final String originalUrl;
-        private String currentUrl;
+        private final String url;
+        private final String host;
+        private final Fetch fetch;
+        private final long submitted = System.nanoTime();
 
-        public RssFetchTask(final String url) {
-            this.originalUrl = url;
-            this.currentUrl = this.originalUrl;
+        public RssFetchTask(final String url, final Fetch fetch) {
+            this.url = url;
+            this.host = hostOf(url);
+            this.fetch = fetch;
         }
 
         @Override
         public RssFeed call() throws IOException {
-            for (int attempts = 3; attempts > 0; attempts--)
+            final long start = System.nanoTime();
+            fetchQueueSeconds.observe(start - this.submitted);
+
+            boolean failed = Boolean.TRUE;
+            try {
+                final RssFeed feed = this.fetch();
+                failed = Boolean.FALSE;
+                return feed;
+            } finally {
+                fetchSeconds.get(this.host).observeSince(start);
+                if (failed)
+                    fetchFailures.get(this.host).increment();
+            }
+        }
+
+        private RssFeed fetch() throws IOException {
+            try {
+                health.admit(this.host); // fails fast while the host is considered down
+            } catch (final IOException e) {
+                throw new IOException(this.url, e);
+            }
+
+            // validators of the previous response, if still around
+            final RssFeed previous = cache.latest(this.url);
+
+            final long hedgeDelay = health.hedgeDelay(this.host);
+            if (hedgeDelay < 0L)
+                return this.attempt(previous);
+
+            final CompletableFuture<RssFeed> primary = this.attemptAsync(previous);
+            try {
+                return primary.get(hedgeDelay, TimeUnit.MILLISECONDS);
+            } catch (final TimeoutException e) {
+                // slower than usual, duplicate the request below
+            } catch (final InterruptedException | ExecutionException e) {
+                return await(primary);
+            }
+
+            if (!health.tryHedge(this.host))
+                return await(primary);
+
+            hedgedFetches.increment();
+            log.debug("Hedging '{}' after {} ms", this.url, hedgeDelay);
+
+            // first successful attempt wins, the other one is left to finish on its own
+            final CompletableFuture<RssFeed> first = new CompletableFuture<>();
+            final AtomicInteger outstanding = new AtomicInteger(2);
+            final BiConsumer<RssFeed, Throwable> race = (feed, e) -> {
+                if (Objects.isNull(e))
+                    first.complete(feed);
+                else if (outstanding.decrementAndGet() == 0)
+                    first.completeExceptionally(e);
+            };
+            primary.whenComplete(race);
+            this.attemptAsync(previous).whenComplete(race);
+
+            return await(first);
+        }
+
+        private CompletableFuture<RssFeed> attemptAsync(final RssFeed previous) {
+            return CompletableFuture.supplyAsync(() -> {
                 try {
-                    final URL url = new URL(this.currentUrl);
-                    if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol()))
-                        throw new MalformedURLException("HTTP/S expected");
-
-                    // dependent of system proxy
-                    final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                    conn.setInstanceFollowRedirects(Boolean.TRUE);
-                    conn.setUseCaches(Boolean.FALSE);
-                    conn.setConnectTimeout(connectTimeout);
-                    conn.setReadTimeout(readTimeout);
-                    conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 6.3; WOW64; Trident/7.0; rv:11.0) like Gecko");
-                    conn.setRequestProperty("Accept", "application/rss+xml, application/xhtml+xml, text/xml");
-                    conn.setRequestProperty("Accept-Charset", "UTF-8");
-                    conn.setRequestProperty("Accept-Encoding", "identity"); // TODO support gzip
-                    conn.connect();
-
-                    try (final InputStream stream = conn.getInputStream()) {
-                        switch (conn.getResponseCode()) {
-                            case HttpURLConnection.HTTP_MOVED_PERM:
-                            case HttpURLConnection.HTTP_MOVED_TEMP:
-                                final String redirect = new URL(conn.getHeaderField("Location")).toExternalForm();
-                                log.debug("'{}' redirects to '{}'", this.currentUrl, redirect);
-                                this.currentUrl = redirect;
-                                continue;
-                            case HttpURLConnection.HTTP_OK:
-                                return RssParser.parseFeed(stream);
-                            default:
-                                throw new IOException(String.format("request unsuccessful (response code %d)", conn.getResponseCode()));
-                        }
-                    }
-                } catch (IOException | XMLStreamException e) {
-                    throw new IOException(this.originalUrl, e); // enrich exception by url
+                    return this.attempt(previous);
+                } catch (final IOException e) {
+                    throw new CompletionException(e);
                 }
+            }, hedgeExecutor);
+        }
+
+        private static RssFeed await(final CompletableFuture<RssFeed> future) throws IOException {
+            try {
+                return future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted", e);
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                throw new IOException(cause);
+            }
+        }
+
+        /**
+         * Single request within the timeout derived for the host, its outcome is recorded.
+         */
+        private RssFeed attempt(final RssFeed previous) throws IOException {
+            final UpstreamRequest request = Objects.isNull(previous)
+                    ? new UpstreamRequest(this.url, null, null, health.timeout(this.host))
+                    : new UpstreamRequest(this.url, previous.etag, previous.lastModified, health.timeout(this.host));
+
+            final FlightEvents.Fetch event = FlightEvents.get().beginFetch();
+            final long start = System.nanoTime();
+            long latency = -1L; // set once the host has answered properly
+            int status = -1;
+            long bytes = 0L;
+
+            try (final UpstreamResponse response = client.get(request)) {
+                status = response.status();
+                switch (response.status()) {
+                    case HttpURLConnection.HTTP_NOT_MODIFIED:
+                        latency = elapsed(start);
+                        if (Objects.isNull(previous))
+                            throw new IOException("not modified although not requested conditionally");
+                        log.debug("'{}' has not been modified", this.url);
+                        return previous;
+                    case HttpURLConnection.HTTP_OK:
+                        final byte[] body = passthrough ? readFully(response.body(), projection.maxBytes()) : null;
+                        final long parseStart = System.nanoTime();
+                        final RssFeed feed = passthrough
+                                ? RssParser.parseFeed(body, projection, Boolean.TRUE)
+                                : RssParser.parseFeed(response.body(), projection);
+                        this.fetch.parseTime = System.nanoTime() - parseStart;
+                        latency = elapsed(start);
+                        feed.etag = response.header("ETag");
+                        feed.lastModified = response.header("Last-Modified");
+
+                        bytes = response.transferredBytes();
+                        compressedBytes.add(response.transferredBytes());
+                        uncompressedBytes.add(response.decodedBytes());
+                        log.debug("'{}' fetched ({}, {} bytes transferred, {} bytes uncompressed)", this.url,
+                                Objects.toString(response.header("Content-Encoding"), "identity"), response.transferredBytes(), response.decodedBytes());
+                        return feed;
+                    default:
+                        if (response.status() < HttpURLConnection.HTTP_INTERNAL_ERROR && response.status() != 429)
+                            latency = elapsed(start); // client error, the host itself is fine
+                        throw new IOException(String.format("request unsuccessful (response code %d)", response.status()));
+                }
+            } catch (final XMLStreamException e) {
+                if (!(e.getNestedException() instanceof IOException))
+                    latency = elapsed(start); // malformed content, the host itself is fine
+                throw new IOException(this.url, e); // enrich exception by url
+            } catch (final IOException e) {
+                throw new IOException(this.url, e); // enrich exception by url
+            } finally {
+                if (latency >= 0L)
+                    health.success(this.host, latency);
+                else if (elapsed(start) >= request.timeout)
+                    health.timedOut(this.host, request.timeout); // lets the percentiles of a slowed down host catch up
+                else
+                    health.failure(this.host);
+
+                if (Objects.nonNull(event))
+                    event.record(this.url, this.host, status, bytes);
+            }
+        }
+
+        private static long elapsed(final long start) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
 
-            throw new IOException(this.originalUrl, new IOException("maximum number of redirects reached"));
+        /**
+         * @param maxBytes number of bytes read at most, 0 for all of them
+         */
+        private static byte[] readFully(final InputStream stream, final long maxBytes) throws IOException {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+            final byte[] chunk = new byte[8192];
+            for (int read; (maxBytes <= 0 || buffer.size() < maxBytes)
+                    && (read = stream.read(chunk, 0, (int) (maxBytes <= 0 ? chunk.length : Math.min(chunk.length, maxBytes - buffer.size())))) >= 0; )
+                buffer.write(chunk, 0, read);
+            return buffer.toByteArray();
         }
     }
 
+    /**
+     * @return total number of bytes transferred from upstream (possibly compressed)
+     */
+    public static long compressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * @return total number of bytes passed to the parser after decoding
+     */
+    public static long uncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
     private static class RssFeedIterator implements Iterator<RssFeed> {
-        private final CompletionService<RssFeed> collector;
+        private final BlockingQueue<Future<RssFeed>> collector;
+        private final long expiry;
+        private final Map<String, CompletableFuture<RssFeed>> outstanding;
+        private final RequestTiming timing;
         private RssFeed nextItem;
         private int numOfTasks;
         private boolean isClosed;
+        private boolean isExpired;
 
-        public RssFeedIterator(final CompletionService<RssFeed> collector, final int numOfTasks) {
+        /**
+         * @param expiry deadline as of {@link System#nanoTime()}
+         * @param outstanding fetches not completed yet, abandoned once the deadline has passed
+         * @param timing of the request, may be null
+         */
+        public RssFeedIterator(final BlockingQueue<Future<RssFeed>> collector, final int numOfTasks,
+                final long expiry, final Map<String, CompletableFuture<RssFeed>> outstanding, final RequestTiming timing) {
             this.collector = collector;
             this.numOfTasks = numOfTasks;
+            this.expiry = expiry;
+            this.outstanding = outstanding;
+            this.timing = timing;
         }
 
         @Override
@@ -125,10 +509,35 @@ public class RssFetcher {
             try {
                 for (numOfTasks--; numOfTasks >= 0; numOfTasks--) {
                     try {
-                        final Future<RssFeed> future = collector.poll(connectTimeout + readTimeout + 500, TimeUnit.MILLISECONDS);
-                        if (Objects.isNull(future)) { // once the timeout has been reached and no (further) task returned, assume complete failure
-                            log.warn("Timeout reached, {} RSS feeds outstanding", this.numOfTasks);
-                            break;
+                        final Future<RssFeed> future = this.isExpired
+                                ? collector.poll()
+                                : collector.poll(this.expiry - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (Objects.isNull(future)) {
+                            if (this.isExpired)
+                                break;
+
+                            // deadline of the whole aggregation reached, go on with what is there
+                            this.isExpired = Boolean.TRUE;
+                            final Map<String, Integer> queued = new TreeMap<>();
+                            for (final String url : this.outstanding.keySet())
+                                queued.computeIfAbsent(hostOf(url), scheduler::queueDepth);
+                            log.warn("Deadline reached, {} RSS feeds outstanding, tasks still waiting per host: {}",
+                                    this.numOfTasks + 1, queued);
+                            int timedOut = 0;
+                            for (final String url : new ArrayList<>(this.outstanding.keySet())) {
+                                final CompletableFuture<RssFeed> fetch = this.outstanding.remove(url);
+                                if (Objects.isNull(fetch))
+                                    continue; // completed meanwhile
+
+                                timedOut++;
+                                abandon(url, fetch);
+                                final RssFeed retained = served(url, null);
+                                this.collector.add(CompletableFuture.completedFuture(retained)); // null if unknown, skipped
+                            }
+                            if (Objects.nonNull(this.timing))
+                                this.timing.timedOut(timedOut);
+                            numOfTasks++; // retry this one
+                            continue;
                         }
 
                         this.nextItem = future.get(); // calling get() since a future was returned supposedly holding a result already
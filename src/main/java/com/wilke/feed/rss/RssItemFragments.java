@@ -0,0 +1,233 @@
+package com.wilke.feed.rss;
+
+import com.wilke.feed.rss.RssFeed.RssItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of items encoded as UTF-8 {@code <item>} elements, as written to combined feeds.
+ * <p>
+ * Most items of a combined feed are the same from one combination to the next, so each is escaped and encoded
+ * only once. Entries are keyed by guid (or link) and a hash of the item's content, an item changed upstream
+ * is simply encoded again while its former encoding ages out. The capacity is given in (estimated) bytes,
+ * once exceeded the least recently used entries are evicted down to three quarters of it.
+ * Items carrying a passthrough {@link RssItem#fragment} are not cached, they are encoded already.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class RssItemFragments {
+
+	private static final Logger log = LoggerFactory.getLogger(RssItemFragments.class);
+
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong weight = new AtomicLong();
+	private final AtomicLong clock = new AtomicLong(); // logical time of accesses
+	private final AtomicBoolean evicting = new AtomicBoolean();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private final long maxWeight;
+
+	/**
+	 * @param maxWeight maximum estimated size in bytes
+	 * @exception IllegalArgumentException if maxWeight < 1
+	 */
+	public RssItemFragments(final long maxWeight) {
+		if (maxWeight < 1)
+			throw new IllegalArgumentException();
+
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * @return encoded item, shared and thus must not be modified
+	 */
+	public ByteBuffer fragment(final RssItem item) throws XMLStreamException {
+		if (item.fragment != null)
+			return ByteBuffer.wrap(item.fragment);
+
+		final Key key = new Key(item.guid != null ? item.guid : item.link, contentHash(item));
+		final Entry cached = this.entries.get(key);
+		if (cached != null) {
+			this.hits.increment();
+			cached.lastAccess = this.clock.incrementAndGet();
+			return cached.buffer.duplicate();
+		}
+
+		this.misses.increment();
+		final byte[] encoded = encode(item);
+		final Entry entry = new Entry(ByteBuffer.wrap(encoded), 96L + encoded.length + (key.id == null ? 0L : 2L * key.id.length()),
+				this.clock.incrementAndGet());
+		if (this.entries.putIfAbsent(key, entry) == null && this.weight.addAndGet(entry.weight) > this.maxWeight)
+			this.evict();
+
+		return entry.buffer.duplicate();
+	}
+
+	public long hitCount() {
+		return this.hits.sum();
+	}
+
+	public long missCount() {
+		return this.misses.sum();
+	}
+
+	public long evictionCount() {
+		return this.evictions.sum();
+	}
+
+	public long weight() {
+		return this.weight.get();
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RssItemFragments[size=%d, weight=%d, hits=%d, misses=%d, evictions=%d]",
+				this.size(), this.weight(), this.hitCount(), this.missCount(), this.evictionCount());
+	}
+
+	/**
+	 * Evicts the least recently used entries in one go, a single thread at a time.
+	 */
+	private void evict() {
+		if (!this.evicting.compareAndSet(Boolean.FALSE, Boolean.TRUE))
+			return;
+
+		try {
+			final List<Map.Entry<Key, Entry>> candidates = new ArrayList<>(this.entries.entrySet());
+			candidates.sort(Comparator.comparingLong(candidate -> candidate.getValue().lastAccess));
+
+			final long target = this.maxWeight / 4L * 3L;
+			int evicted = 0;
+			for (final Map.Entry<Key, Entry> candidate : candidates) {
+				if (this.weight.get() <= target)
+					break;
+				if (this.entries.remove(candidate.getKey(), candidate.getValue())) {
+					this.weight.addAndGet(-candidate.getValue().weight);
+					evicted++;
+				}
+			}
+
+			this.evictions.add(evicted);
+			log.debug("Evicted {} item fragments", evicted);
+		} finally {
+			this.evicting.set(Boolean.FALSE);
+		}
+	}
+
+	/**
+	 * Encodes the given item the way combined feeds present it, its description replaced by the torrent link.
+	 */
+	static byte[] encode(final RssItem item) throws XMLStreamException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+		final XMLStreamWriter writer = outputFactory.createXMLStreamWriter(buffer, "UTF-8");
+
+		try {
+			writer.writeStartElement(RssItem.ITEM);
+
+			writer.writeStartElement(RssItem.TITLE);
+			writer.writeCharacters(item.title);
+			writer.writeEndElement();
+
+			writer.writeStartElement(RssItem.CATEGORY);
+			writer.writeCharacters(item.category);
+			writer.writeEndElement();
+
+			writer.writeStartElement(RssItem.LINK);
+			writer.writeCharacters(item.link);
+			writer.writeEndElement();
+
+			writer.writeStartElement(RssItem.GUID);
+			writer.writeCharacters(item.guid);
+			writer.writeEndElement();
+
+			writer.writeStartElement(RssItem.DESCRIPTION);
+			writer.writeCData(RssParser.description(item).replace("]]>", "]]]]><![CDATA[>")); // written as is otherwise
+			writer.writeEndElement();
+
+			writer.writeStartElement(RssItem.PUBDATE);
+			writer.writeCharacters(item.pubDate);
+			writer.writeEndElement();
+
+			writer.writeEndElement();
+			writer.flush();
+		} finally {
+			writer.close();
+		}
+
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * 64-bit FNV-1a hash over every field written, null and empty fields are told apart.
+	 */
+	private static long contentHash(final RssItem item) {
+		long hash = 0xCBF29CE484222325L;
+		for (final String value : new String[] { item.title, item.category, item.link, item.guid, item.pubDate }) {
+			if (value != null)
+				for (int idx = 0; idx < value.length(); idx++)
+					hash = (hash ^ value.charAt(idx)) * 0x100000001B3L;
+			hash = (hash ^ (value == null ? 0x10000L : 0x20000L)) * 0x100000001B3L; // separator, beyond any char
+		}
+		return hash;
+	}
+
+	private static final class Key {
+		final String id;
+		final long hash;
+
+		Key(final String id, final long hash) {
+			this.id = id;
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key))
+				return Boolean.FALSE;
+			final Key other = (Key) obj;
+			return this.hash == other.hash && Objects.equals(this.id, other.id);
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(this.hash);
+		}
+	}
+
+	private static final class Entry {
+		final ByteBuffer buffer;
+		final long weight;
+
+		volatile long lastAccess;
+
+		Entry(final ByteBuffer buffer, final long weight, final long lastAccess) {
+			this.buffer = buffer;
+			this.weight = weight;
+			this.lastAccess = lastAccess;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.wilke.feed.rss;
+
+import com.wilke.feed.rss.RssFeed.RssItem;
+import com.wilke.util.LongHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Merges the items of several feeds: duplicates (by guid, or link if missing) are dropped and only the newest items are kept,
+ * newest first. Items of equal publication date are ordered by guid, then link and title. Of duplicates the newest copy is
+ * kept (ties broken the same way), so the result does not depend on the order of the feeds.
+ */
+final class RssMerger {
+
+	/**
+	 * Newest (i.e. most wanted) candidate first, a total order on the fields compared.
+	 */
+	private static final Comparator<Candidate> NEWEST_FIRST = Comparator
+			.comparingLong((Candidate candidate) -> candidate.published).reversed()
+			.thenComparing(candidate -> candidate.item.guid, Comparator.nullsLast(Comparator.naturalOrder()))
+			.thenComparing(candidate -> candidate.item.link, Comparator.nullsLast(Comparator.naturalOrder()))
+			.thenComparing(candidate -> candidate.item.title, Comparator.nullsLast(Comparator.naturalOrder()));
+
+	private RssMerger() {}
+
+	/**
+	 * @param limit maximum number of items returned, 0 for all of them
+	 * @return newest items first
+	 */
+	static List<RssItem> merge(final List<RssFeed> feeds, final int limit) {
+		int total = 0;
+		for (final RssFeed feed : feeds)
+			if (feed.channel != null)
+				total += feed.channel.items.size();
+		if (total == 0)
+			return Collections.emptyList();
+
+		final Candidate[] candidates = new Candidate[total];
+		int count = 0;
+		for (final RssFeed feed : feeds) {
+			if (feed.channel == null)
+				continue;
+
+			for (final RssItem item : feed.channel.items)
+				candidates[count++] = new Candidate(item, RssDates.parse(item.pubDate));
+		}
+
+		// the first copy of an item seen is the one to keep
+		Arrays.sort(candidates, 0, count, NEWEST_FIRST);
+
+		final int capacity = limit > 0 ? Math.min(limit, count) : count;
+		final LongHashSet seen = new LongHashSet(total);
+		final List<RssItem> items = new ArrayList<>(capacity);
+		for (int idx = 0; idx < count && items.size() < capacity; idx++) {
+			final RssItem item = candidates[idx].item;
+			final String key = item.guid != null ? item.guid : item.link;
+			if (key != null && !seen.add(LongHashSet.hash(key)))
+				continue; // duplicate
+
+			items.add(item);
+		}
+
+		return items;
+	}
+
+	private static final class Candidate {
+		final RssItem item;
+		final long published;
+
+		Candidate(final RssItem item, final long published) {
+			this.item = item;
+			this.published = published;
+		}
+	}
+}
@@ -2,13 +2,30 @@ package com.wilke.feed.rss;
 
 import com.wilke.feed.rss.RssFeed.RssChannel;
 import com.wilke.feed.rss.RssFeed.RssItem;
+import com.wilke.feed.rss.RssProjection.Field;
+import com.wilke.metrics.Counter;
+import com.wilke.metrics.FlightEvents;
+import com.wilke.metrics.Histogram;
+import com.wilke.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.xml.XMLConstants;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class RssParser {
 
@@ -21,12 +38,110 @@ public class RssParser {
 		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
 	}
 
+	// maps item tag to its field
+	private static final Map<String, Field> FIELDS = new HashMap<>();
+	static {
+		FIELDS.put(RssItem.TITLE, Field.TITLE);
+		FIELDS.put(RssItem.CATEGORY, Field.CATEGORY);
+		FIELDS.put(RssItem.LINK, Field.LINK);
+		FIELDS.put(RssItem.GUID, Field.GUID);
+		FIELDS.put(RssItem.DESCRIPTION, Field.DESCRIPTION);
+		FIELDS.put(RssItem.PUBDATE, Field.PUBDATE);
+	}
+
+	/**
+	 * Fields extracted in passthrough mode, category and description are kept in (respectively replaced in) the fragment.
+	 */
+	private static final Set<Field> PASSTHROUGH_FIELDS = EnumSet.of(Field.TITLE, Field.LINK, Field.GUID, Field.PUBDATE);
+
+	private static final Histogram parseSeconds = Metrics.registry().histogram("catnapper_parse_seconds",
+			"Time parsing an upstream feed, reading its body included unless buffered before");
+	private static final Counter parseFailures = Metrics.registry().counter("catnapper_parse_failures_total",
+			"Upstream feeds that could not be parsed");
+
 	/**
 	 * Parses (only) the first channel and all of its items.
 	 * @throws XMLStreamException
 	 */
 	public static RssFeed parseFeed(final InputStream stream) throws XMLStreamException {
-		final XMLStreamReader reader = inputFactory.createXMLStreamReader(stream);
+		return parseFeed(stream, RssProjection.ALL);
+	}
+
+	/**
+	 * Parses (only) the first channel and its items as far as the given projection asks for. Elements not needed are
+	 * skipped as a whole and reading stops right after the last item needed. If the byte limit is hit, the items
+	 * completely read so far are returned.
+	 * @throws XMLStreamException
+	 */
+	public static RssFeed parseFeed(final InputStream stream, final RssProjection projection) throws XMLStreamException {
+		final FlightEvents.Parse event = FlightEvents.get().beginParse();
+		final long start = System.nanoTime();
+		RssFeed feed = null;
+		try {
+			feed = parseFeed(stream, projection, null);
+			return feed;
+		} finally {
+			parsed(start, feed, Boolean.FALSE, event);
+		}
+	}
+
+	/**
+	 * Parses the given document like {@link #parseFeed(InputStream, RssProjection)}.
+	 * <p>
+	 * In passthrough mode only the fields needed for merging (title, link, guid, pubDate) are extracted and each item
+	 * keeps its original bytes as {@link RssItem#fragment}, which are written to combined feeds without serializing
+	 * the item again. The namespace declarations of the document are repeated on each fragment, so prefixed elements
+	 * stay valid. Documents not suitable (not UTF-8, a default namespace or items not found by the byte scan)
+	 * are parsed as usual.
+	 */
+	public static RssFeed parseFeed(final byte[] buffer, final RssProjection projection, final boolean passthrough) throws XMLStreamException {
+		final FlightEvents.Parse event = FlightEvents.get().beginParse();
+		final long start = System.nanoTime();
+		RssFeed feed = null;
+		boolean isPassedThrough = Boolean.FALSE;
+		try {
+			if (passthrough) {
+				final Passthrough state = new Passthrough();
+				final RssFeed candidate = parseFeed(new ByteArrayInputStream(buffer), projection.only(PASSTHROUGH_FIELDS), state);
+				if (state.isSuitable && attachFragments(buffer, candidate, state.namespaces.toString(), state.isCut)) {
+					isPassedThrough = Boolean.TRUE;
+					feed = candidate;
+					return feed;
+				}
+
+				log.debug("Feed not suitable for passthrough, parsing it as usual");
+			}
+
+			feed = parseFeed(new ByteArrayInputStream(buffer), projection, null);
+			return feed;
+		} finally {
+			parsed(start, feed, isPassedThrough, event);
+		}
+	}
+
+	/**
+	 * Same as {@link #parseFeed(byte[], RssProjection, boolean)} with every field and no limits.
+	 */
+	public static RssFeed parseFeed(final byte[] buffer, final boolean passthrough) throws XMLStreamException {
+		return parseFeed(buffer, RssProjection.ALL, passthrough);
+	}
+
+	/**
+	 * @param feed null if parsing failed
+	 * @param event null unless recorded
+	 */
+	private static void parsed(final long start, final RssFeed feed, final boolean passthrough, final FlightEvents.Parse event) {
+		parseSeconds.observeSince(start);
+		if (feed == null)
+			parseFailures.increment();
+
+		if (event != null)
+			event.record(feed == null ? -1 : feed.channel == null ? 0 : feed.channel.items.size(), passthrough);
+	}
+
+	private static RssFeed parseFeed(final InputStream stream, final RssProjection projection, final Passthrough passthrough) throws XMLStreamException {
+		final LimitedInputStream limited = new LimitedInputStream(stream, projection.maxBytes());
+		final XMLStreamReader reader = inputFactory.createXMLStreamReader(limited);
 		final RssFeed feed = new RssFeed();
 		boolean isRSS = Boolean.FALSE;
 
@@ -41,13 +156,23 @@ public class RssParser {
 					if (isRSS) { // RSS check passed
 						switch (tag) {
 						case RssChannel.CHANNEL:
-							feed.channel = parseChannel(reader);
-							break;
+							if (passthrough != null)
+								passthrough.declare(reader);
+							feed.channel = new RssChannel();
+							if (!parseChannel(reader, feed.channel, projection) && passthrough != null)
+								passthrough.isCut = Boolean.TRUE;
+							break tagLoop; // only the first channel
 						default:
-							log.debug("Unsupported tag in rss: {}", tag);
+							skipElement(reader);
 							continue;
 						}
 					} else { // RSS check
+						if (RssFeed.RSS.equals(tag) && passthrough != null) {
+							passthrough.declare(reader);
+							if (reader.getEncoding() != null && !"UTF-8".equalsIgnoreCase(reader.getEncoding()) && !"UTF8".equalsIgnoreCase(reader.getEncoding()))
+								passthrough.isSuitable = Boolean.FALSE;
+						}
+
 						if (RssFeed.RSS.equals(tag))
 							for (int idx = 0; idx < reader.getAttributeCount(); idx++)
 								if (RssFeed.VERSION_ATTRIBUTE.equals(reader.getAttributeLocalName(idx)))
@@ -60,6 +185,12 @@ public class RssParser {
 					}
 				}
 			}
+		} catch (final XMLStreamException e) {
+			if (!limited.isExhausted() || feed.channel == null)
+				throw e;
+			log.debug("Feed truncated after {} bytes, {} items read", projection.maxBytes(), feed.channel.items.size());
+			if (passthrough != null)
+				passthrough.isCut = Boolean.TRUE;
 		} finally {
 			if (reader != null)
 				reader.close();
@@ -68,9 +199,12 @@ public class RssParser {
 		return feed;
 	}
 
-	private static RssChannel parseChannel(final XMLStreamReader reader) throws XMLStreamException {
-		final RssChannel channel = new RssChannel();
-
+	/**
+	 * Fills the given channel, which is left with the items completely read if parsing fails.
+	 *
+	 * @return false if parsing stopped at the item limit, before the end of the channel
+	 */
+	private static boolean parseChannel(final XMLStreamReader reader, final RssChannel channel, final RssProjection projection) throws XMLStreamException {
 		while (reader.hasNext()) {
 			reader.next();
 
@@ -89,15 +223,17 @@ public class RssParser {
 						channel.description = parseText(reader);
 						continue;
 					case RssItem.ITEM:
-						channel.items.add(parseItem(reader));
+						channel.items.add(parseItem(reader, projection));
+						if (projection.maxItems() > 0 && channel.items.size() >= projection.maxItems())
+							return Boolean.FALSE; // early termination, the rest is not needed
 						continue;
 					default:
-						log.debug("Unsupported tag in channel: {}", tag);
+						skipElement(reader);
 						continue;
 					}
 				} else { // isEndElement()
 					if (tag.equals(RssChannel.CHANNEL))
-						return channel;
+						return Boolean.TRUE;
 				}
 			}
 		}
@@ -105,7 +241,7 @@ public class RssParser {
 		throw new XMLStreamException("Invalid RSS channel, either none found or not well-formed");
 	}
 
-	private static RssItem parseItem(final XMLStreamReader reader) throws XMLStreamException {
+	private static RssItem parseItem(final XMLStreamReader reader, final RssProjection projection) throws XMLStreamException {
 		final RssItem item = new RssItem();
 
 		while (reader.hasNext()) {
@@ -115,28 +251,31 @@ public class RssParser {
 				final String tag = reader.getLocalName();
 
 				if (reader.isStartElement()) {
-					switch (tag) {
-					case RssItem.TITLE:
+					final Field field = FIELDS.get(tag);
+					if (field == null || !projection.includes(field)) {
+						skipElement(reader);
+						continue;
+					}
+
+					switch (field) {
+					case TITLE:
 						item.title = parseText(reader);
 						continue;
-					case RssItem.CATEGORY:
+					case CATEGORY:
 						item.category = parseText(reader);
 						continue;
-					case RssItem.LINK:
+					case LINK:
 						item.link = parseText(reader);
 						continue;
-					case RssItem.GUID:
+					case GUID:
 						item.guid = parseText(reader);
 						continue;
-					case RssItem.DESCRIPTION:
+					case DESCRIPTION:
 						item.description = parseText(reader);
 						continue;
-					case RssItem.PUBDATE:
+					case PUBDATE:
 						item.pubDate = parseText(reader);
 						continue;
-					default:
-						log.debug("Unsupported tag in item: {}", tag);
-						continue;
 					}
 				} else { // isEndElement()
 					if (tag.equals(RssItem.ITEM))
@@ -148,8 +287,277 @@ public class RssParser {
 		throw new XMLStreamException("Invalid RSS channel item, either none found or not well-formed");
 	}
 
+	/**
+	 * Reads the text of the current element up to its end, including text of nested elements.
+	 * Text split into several events (e.g. by comments or entity references) is joined.
+	 */
 	private static String parseText(final XMLStreamReader reader) throws XMLStreamException {
-		reader.next();
-		return reader.isCharacters() ? reader.getText() : "";
+		String text = "";
+		StringBuilder joined = null; // only if split
+
+		for (int depth = 0; ; ) {
+			switch (reader.next()) {
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+			case XMLStreamConstants.ENTITY_REFERENCE:
+				if (text.isEmpty()) {
+					text = reader.getText();
+				} else {
+					if (joined == null)
+						joined = new StringBuilder(text);
+					joined.append(reader.getText());
+				}
+				break;
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				if (depth-- == 0)
+					return joined == null ? text : joined.toString();
+				break;
+			case XMLStreamConstants.END_DOCUMENT:
+				throw new XMLStreamException("Unexpected end of document within text");
+			default: // comments and processing instructions
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Skips the current element and everything within, up to its end.
+	 */
+	private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+		for (int depth = 0; ; ) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				if (depth-- == 0)
+					return;
+				break;
+			case XMLStreamConstants.END_DOCUMENT:
+				throw new XMLStreamException("Unexpected end of document within element");
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the description written to combined feeds instead of the upstream one, linking the torrent
+	 */
+	static String description(final RssItem item) {
+		return "<a href=\"" + item.link + "\" />" + item.title + "</a>";
+	}
+
+	/**
+	 * Locates the items in the given buffer and attaches their fragments to the parsed items (in document order).
+	 *
+	 * @param isCut whether parsing stopped before the end of the channel, leaving items found unparsed
+	 * @return false if the items found do not match the parsed ones
+	 */
+	private static boolean attachFragments(final byte[] buffer, final RssFeed feed, final String namespaces, final boolean isCut) {
+		if (feed.channel == null)
+			return Boolean.FALSE;
+
+		final List<int[]> ranges = itemRanges(buffer);
+		if (ranges == null || ranges.size() < feed.channel.items.size() || (!isCut && ranges.size() != feed.channel.items.size()))
+			return Boolean.FALSE;
+
+		final byte[] declarations = namespaces.getBytes(StandardCharsets.UTF_8);
+		for (int idx = 0; idx < feed.channel.items.size(); idx++) {
+			final RssItem item = feed.channel.items.get(idx);
+			final int[] range = ranges.get(idx);
+			final int start = range[0], end = range[1], close = range[4];
+			final int descriptionStart = range[2] >= 0 ? range[2] : close;
+			final int descriptionEnd = range[2] >= 0 ? range[3] : close;
+
+			final byte[] description = ("<" + RssItem.DESCRIPTION + "><![CDATA["
+					+ description(item).replace("]]>", "]]]]><![CDATA[>")
+					+ "]]></" + RssItem.DESCRIPTION + ">").getBytes(StandardCharsets.UTF_8);
+
+			final byte[] fragment = new byte[end - start + declarations.length + description.length - (descriptionEnd - descriptionStart)];
+			int pos = 0;
+			pos = copy(buffer, start, start + 5, fragment, pos); // "<item"
+			pos = copy(declarations, 0, declarations.length, fragment, pos);
+			pos = copy(buffer, start + 5, descriptionStart, fragment, pos);
+			pos = copy(description, 0, description.length, fragment, pos);
+			copy(buffer, descriptionEnd, end, fragment, pos);
+			item.fragment = fragment;
+		}
+
+		return Boolean.TRUE;
+	}
+
+	/**
+	 * Scans the raw document for items, skipping CDATA sections, comments and processing instructions.
+	 *
+	 * @return per complete item its start, end, description start and end (-1 if none) and the start of its closing tag,
+	 *         null if not well-formed as expected
+	 */
+	static List<int[]> itemRanges(final byte[] buffer) {
+		final List<int[]> ranges = new ArrayList<>();
+		int[] current = null;
+
+		for (int idx = 0; idx < buffer.length; idx++) {
+			if (buffer[idx] != '<')
+				continue;
+
+			if (startsWith(buffer, idx, "<![CDATA[")) {
+				idx = skipPast(buffer, "]]>", idx);
+			} else if (startsWith(buffer, idx, "<!--")) {
+				idx = skipPast(buffer, "-->", idx);
+			} else if (startsWith(buffer, idx, "<?")) {
+				idx = skipPast(buffer, "?>", idx);
+			} else if (isTag(buffer, idx, "<item")) {
+				if (current != null)
+					return null; // nested
+				current = new int[] { idx, -1, -1, -1, -1 };
+			} else if (current != null && isTag(buffer, idx, "<description")) {
+				current[2] = idx;
+				final int gt = indexOf(buffer, ">", idx);
+				if (gt > 0 && buffer[gt - 1] == '/')
+					current[3] = gt + 1; // empty element
+			} else if (current != null && isTag(buffer, idx, "</description")) {
+				current[3] = indexOf(buffer, ">", idx) + 1;
+			} else if (current != null && isTag(buffer, idx, "</item")) {
+				current[4] = idx;
+				current[1] = indexOf(buffer, ">", idx) + 1;
+				if (current[1] <= 0 || (current[2] >= 0 && current[3] <= 0))
+					return null;
+				ranges.add(current);
+				current = null;
+			}
+
+			if (idx < 0)
+				break; // unterminated
+		}
+
+		return ranges; // an item left open is cut off, as in truncated documents
+	}
+
+	/**
+	 * @return offset of the last character of the given terminator at or after the given offset, -1 if none
+	 */
+	private static int skipPast(final byte[] buffer, final String terminator, final int from) {
+		final int idx = indexOf(buffer, terminator, from);
+		return idx < 0 ? -1 : idx + terminator.length() - 1;
+	}
+
+	/**
+	 * @return position in the target following the copied range
+	 */
+	private static int copy(final byte[] source, final int from, final int to, final byte[] target, final int position) {
+		System.arraycopy(source, from, target, position, to - from);
+		return position + to - from;
+	}
+
+	private static boolean startsWith(final byte[] buffer, final int offset, final String prefix) {
+		if (offset + prefix.length() > buffer.length)
+			return Boolean.FALSE;
+		for (int idx = 0; idx < prefix.length(); idx++)
+			if (buffer[offset + idx] != prefix.charAt(idx))
+				return Boolean.FALSE;
+		return Boolean.TRUE;
+	}
+
+	/**
+	 * Tells whether the given tag name starts at the given offset, followed by whitespace, '>' or '/'.
+	 */
+	private static boolean isTag(final byte[] buffer, final int offset, final String tag) {
+		if (!startsWith(buffer, offset, tag) || offset + tag.length() >= buffer.length)
+			return Boolean.FALSE;
+		final byte next = buffer[offset + tag.length()];
+		return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\r' || next == '\n';
+	}
+
+	/**
+	 * @return offset of the given ASCII string at or after the given offset, -1 if none
+	 */
+	private static int indexOf(final byte[] buffer, final String value, final int from) {
+		for (int idx = from; idx <= buffer.length - value.length(); idx++)
+			if (startsWith(buffer, idx, value))
+				return idx;
+		return -1;
+	}
+
+	/**
+	 * Namespace declarations of the document and whether it suits passthrough at all.
+	 */
+	private static final class Passthrough {
+		final StringBuilder namespaces = new StringBuilder();
+		boolean isSuitable = Boolean.TRUE;
+		boolean isCut;
+
+		void declare(final XMLStreamReader reader) {
+			for (int idx = 0; idx < reader.getAttributeCount(); idx++) {
+				final String uri = reader.getAttributeName(idx).getNamespaceURI();
+				final String name = reader.getAttributeLocalName(idx);
+
+				if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(uri) || name.startsWith(XMLConstants.XMLNS_ATTRIBUTE)) {
+					final String prefix = name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ':')
+							? name.substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1)
+							: name;
+					if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+						this.isSuitable = Boolean.FALSE; // a default namespace would move the items
+						continue;
+					}
+
+					this.namespaces.append(" xmlns:").append(prefix).append("=\"")
+							.append(reader.getAttributeValue(idx).replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;"))
+							.append('"');
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ends the stream after a number of bytes, 0 for none.
+	 */
+	private static final class LimitedInputStream extends FilterInputStream {
+		private final long limit;
+		private long remaining;
+
+		LimitedInputStream(final InputStream stream, final long limit) {
+			super(stream);
+			this.limit = limit;
+			this.remaining = limit;
+		}
+
+		boolean isExhausted() {
+			return this.limit > 0 && this.remaining <= 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (this.isExhausted())
+				return -1;
+
+			final int result = super.read();
+			if (result >= 0 && this.limit > 0)
+				this.remaining--;
+			return result;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			if (this.isExhausted())
+				return -1;
+
+			final int result = super.read(buffer, offset, this.limit > 0 ? (int) Math.min(length, this.remaining) : length);
+			if (result > 0 && this.limit > 0)
+				this.remaining -= result;
+			return result;
+		}
+
+		@Override
+		public long skip(final long count) throws IOException {
+			final long result = super.skip(this.limit > 0 ? Math.min(count, this.remaining) : count);
+			if (result > 0 && this.limit > 0)
+				this.remaining -= result;
+			return result;
+		}
 	}
 }
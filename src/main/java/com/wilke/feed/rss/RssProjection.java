@@ -0,0 +1,78 @@
+package com.wilke.feed.rss;
+
+import com.wilke.feed.rss.RssFeed.RssItem;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * What of a feed is parsed: the item fields needed, how many items at most and how many bytes of the document at most.
+ * Elements of fields not needed are skipped as a whole, parsing stops once either limit is reached.
+ * <p>
+ * Instances are immutable.
+ */
+public final class RssProjection {
+
+	/**
+	 * Fields of {@link RssItem}.
+	 */
+	public enum Field { TITLE, CATEGORY, LINK, GUID, DESCRIPTION, PUBDATE }
+
+	/**
+	 * Every field of every item.
+	 */
+	public static final RssProjection ALL = new RssProjection(EnumSet.allOf(Field.class), 0, 0L);
+
+	private final Set<Field> fields;
+	private final int maxItems;
+	private final long maxBytes;
+
+	/**
+	 * @param maxItems number of items parsed at most, 0 for all of them
+	 * @param maxBytes number of bytes of the document read at most, 0 for all of them
+	 * @exception IllegalArgumentException if maxItems or maxBytes < 0
+	 */
+	public RssProjection(final Set<Field> fields, final int maxItems, final long maxBytes) {
+		if (maxItems < 0 || maxBytes < 0)
+			throw new IllegalArgumentException();
+
+		this.fields = Collections.unmodifiableSet(fields.isEmpty() ? EnumSet.noneOf(Field.class) : EnumSet.copyOf(fields));
+		this.maxItems = maxItems;
+		this.maxBytes = maxBytes;
+	}
+
+	public boolean includes(final Field field) {
+		return this.fields.contains(field);
+	}
+
+	public Set<Field> fields() {
+		return this.fields;
+	}
+
+	/**
+	 * @return number of items parsed at most, 0 for all of them
+	 */
+	public int maxItems() {
+		return this.maxItems;
+	}
+
+	/**
+	 * @return number of bytes of the document read at most, 0 for all of them
+	 */
+	public long maxBytes() {
+		return this.maxBytes;
+	}
+
+	/**
+	 * @return same limits, only the given fields
+	 */
+	public RssProjection only(final Set<Field> fields) {
+		return new RssProjection(fields, this.maxItems, this.maxBytes);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RssProjection[fields=%s, maxItems=%d, maxBytes=%d]", this.fields, this.maxItems, this.maxBytes);
+	}
+}
@@ -0,0 +1,215 @@
+package com.wilke.feed.rss;
+
+import com.wilke.feed.rss.RssFeed.RssItem;
+import com.wilke.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls every upstream URL referenced by any feed aggregate in the background and keeps the {@link RssFeedCache} populated.
+ * <p>
+ * Each URL is polled on its own schedule. The interval is derived from the publication dates of the items seen
+ * (a quarter of their average spacing) and grows whenever a poll does not reveal any new item. Feeds whose newest
+ * item is older than the dormancy period are polled at the maximum interval only.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class RssRefresher implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(RssRefresher.class);
+
+	/**
+	 * Age of the newest item after which a feed is considered finished.
+	 */
+	private static final long DORMANCY = TimeUnit.DAYS.toMillis(14);
+
+	/**
+	 * Number of most recent publication dates taken into account.
+	 */
+	private static final int SAMPLE_SIZE = 10;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(DaemonThreadFactory.INSTANCE);
+
+	// maps upstream url to its polling schedule
+	private final Map<String, Schedule> schedules = new ConcurrentHashMap<>();
+
+	private final RssFeedCache cache;
+	private final long minInterval;
+	private final long maxInterval;
+
+	/**
+	 * @param minInterval shortest polling interval in milliseconds
+	 * @param maxInterval longest polling interval in milliseconds
+	 * @exception NullPointerException if cache is null
+	 * @exception IllegalArgumentException if minInterval < 1 or maxInterval < minInterval
+	 */
+	public RssRefresher(final RssFeedCache cache, final long minInterval, final long maxInterval) {
+		if (minInterval < 1 || maxInterval < minInterval)
+			throw new IllegalArgumentException();
+
+		this.cache       = Objects.requireNonNull(cache);
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+	}
+
+	/**
+	 * Stops all polling (cannot be turned on again).
+	 */
+	@Override
+	public void close() {
+		this.scheduler.shutdownNow();
+		this.schedules.clear();
+	}
+
+	/**
+	 * Aligns the set of polled URLs with the given (canonical) ones.
+	 * New URLs are polled immediately, URLs no longer referenced are dropped.
+	 *
+	 * @see com.wilke.feed.FeedIndex#urls()
+	 */
+	public void reconcile(final Set<String> urls) {
+		int changes = 0;
+		for (final String url : new ArrayList<>(this.schedules.keySet()))
+			if (!urls.contains(url)) {
+				final Schedule schedule = this.schedules.remove(url);
+				if (schedule != null) {
+					schedule.cancel();
+					changes++;
+				}
+				this.cache.invalidate(url);
+			}
+
+		for (final String url : urls)
+			if (this.schedule(url))
+				changes++;
+
+		if (changes > 0)
+			log.info("Refreshing {} upstream feeds", this.schedules.size());
+	}
+
+	/**
+	 * Makes sure the given URL is polled, immediately if it is not known yet.
+	 */
+	public void pollSoon(final String url) {
+		this.schedule(url);
+	}
+
+	/**
+	 * @return whether the URL was not known yet and is polled immediately
+	 */
+	private boolean schedule(final String url) {
+		final Schedule schedule = new Schedule(url, this.minInterval);
+		if (this.schedules.putIfAbsent(url, schedule) != null)
+			return Boolean.FALSE;
+
+		schedule.scheduleIn(0L);
+		return Boolean.TRUE;
+	}
+
+	public int size() {
+		return this.schedules.size();
+	}
+
+	private final class Schedule {
+		private final String url;
+		private final Set<String> guids = new HashSet<>();
+		private long interval;
+		private ScheduledFuture<?> next;
+
+		Schedule(final String url, final long interval) {
+			this.url = url;
+			this.interval = interval;
+		}
+
+		synchronized void scheduleIn(final long delay) {
+			if (RssRefresher.this.schedules.get(this.url) != this)
+				return; // dropped meanwhile
+
+			try {
+				this.next = RssRefresher.this.scheduler.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+			} catch (final RejectedExecutionException e) {
+				log.debug("Refresher has been shut down, not polling '{}'", this.url);
+			}
+		}
+
+		synchronized void cancel() {
+			if (this.next != null)
+				this.next.cancel(Boolean.FALSE);
+		}
+
+		private void poll() {
+			// never block the scheduler, the fetch is done by the worker pool
+			RssFetcher.fetchFeed(this.url).whenComplete((feed, e) -> {
+				if (e == null) {
+					this.scheduleIn(this.adapt(feed));
+				} else {
+					log.debug("Could not refresh '{}': {}", this.url, e.toString());
+					this.scheduleIn(this.backOff());
+				}
+			});
+		}
+
+		private synchronized long adapt(final RssFeed feed) {
+			final List<RssItem> items = feed.channel == null ? new ArrayList<>() : feed.channel.items;
+			final long now = System.currentTimeMillis();
+
+			boolean hasNewItems = Boolean.FALSE;
+			final List<Long> dates = new ArrayList<>();
+			final Set<String> guids = new HashSet<>();
+
+			for (final RssItem item : items) {
+				if (item.guid != null) {
+					guids.add(item.guid);
+					if (!this.guids.contains(item.guid))
+						hasNewItems = Boolean.TRUE;
+				}
+
+				final long pubDate = RssDates.parse(item.pubDate);
+				if (pubDate > 0L)
+					dates.add(pubDate);
+			}
+
+			this.guids.clear();
+			this.guids.addAll(guids);
+
+			dates.sort((a, b) -> Long.compare(b, a)); // newest first
+
+			if (!dates.isEmpty() && now - dates.get(0) > DORMANCY) {
+				this.interval = RssRefresher.this.maxInterval; // finished series
+			} else {
+				long target = this.interval;
+				final int sample = Math.min(dates.size(), SAMPLE_SIZE);
+				if (sample > 1)
+					target = (dates.get(0) - dates.get(sample - 1)) / (sample - 1) / 4;
+
+				this.interval = hasNewItems
+						? target
+						: Math.max(target, this.interval + this.interval / 2);
+			}
+
+			this.interval = Math.max(RssRefresher.this.minInterval, Math.min(RssRefresher.this.maxInterval, this.interval));
+			log.debug("Polling '{}' again in {} minutes", this.url, TimeUnit.MILLISECONDS.toMinutes(this.interval));
+
+			return this.interval;
+		}
+
+		private synchronized long backOff() {
+			this.interval = Math.min(RssRefresher.this.maxInterval, this.interval * 2);
+			return this.interval;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package com.wilke.http;
+
+import com.wilke.util.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Common behavior of all upstream clients: request headers, redirects, per-host connection limits and content decoding.
+ * Subclasses merely perform a single HTTP exchange.
+ */
+public abstract class AbstractUpstreamClient implements UpstreamClient {
+
+	private static final Logger log = LoggerFactory.getLogger(AbstractUpstreamClient.class);
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	protected final int connectTimeout;
+	protected final int readTimeout;
+	protected final int maxConnectionsPerHost;
+
+	// maps host to its connection permits
+	private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+	/**
+	 * @param connectTimeout in milliseconds
+	 * @param readTimeout in milliseconds
+	 * @exception IllegalArgumentException if any argument is < 1
+	 */
+	protected AbstractUpstreamClient(final int connectTimeout, final int readTimeout, final int maxConnectionsPerHost) {
+		if (connectTimeout < 1 || readTimeout < 1 || maxConnectionsPerHost < 1)
+			throw new IllegalArgumentException();
+
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	/**
+	 * A single HTTP exchange, its body is not decoded yet.
+	 */
+	protected interface Exchange extends Closeable {
+		int status();
+		String header(String name);
+		InputStream body() throws IOException;
+	}
+
+	/**
+	 * Performs a single GET without following redirects.
+	 *
+	 * @param connectTimeout in milliseconds
+	 * @param readTimeout in milliseconds
+	 */
+	protected abstract Exchange exchange(URL url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException;
+
+	@Override
+	public final UpstreamResponse get(final UpstreamRequest request) throws IOException {
+		final Map<String, String> headers = new LinkedHashMap<>();
+		headers.put("User-Agent", "Mozilla/5.0 (Windows NT 6.3; WOW64; Trident/7.0; rv:11.0) like Gecko");
+		headers.put("Accept", "application/rss+xml, application/xhtml+xml, text/xml");
+		headers.put("Accept-Charset", "UTF-8");
+		headers.put("Accept-Encoding", "gzip, deflate");
+		if (request.etag != null)
+			headers.put("If-None-Match", request.etag);
+		if (request.lastModified != null)
+			headers.put("If-Modified-Since", request.lastModified);
+
+		final int connectTimeout = request.timeout > 0 ? Math.min(request.timeout, this.connectTimeout) : this.connectTimeout;
+		final int readTimeout = request.timeout > 0 ? Math.min(request.timeout, this.readTimeout) : this.readTimeout;
+
+		String currentUrl = request.url;
+		for (int attempts = MAX_ATTEMPTS; attempts > 0; attempts--) {
+			final URL url = new URL(currentUrl);
+			if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol()))
+				throw new MalformedURLException("HTTP/S expected");
+
+			final Semaphore permit = this.acquire(url.getHost(), connectTimeout);
+			final Exchange exchange;
+			try {
+				exchange = this.exchange(url, headers, connectTimeout, readTimeout);
+			} catch (final IOException | RuntimeException e) {
+				permit.release();
+				throw e;
+			}
+
+			switch (exchange.status()) {
+				case 301: // moved permanently
+				case 302: // found
+				case 303: // see other
+				case 307: // temporary redirect
+				case 308: // permanent redirect
+					final String location = exchange.header("Location");
+					closeQuietly(exchange);
+					permit.release();
+					if (location == null)
+						throw new IOException("redirect without location");
+
+					final String redirect = new URL(url, location).toExternalForm();
+					log.debug("'{}' redirects to '{}'", currentUrl, redirect);
+					currentUrl = redirect;
+					continue;
+				default:
+					try {
+						final CountingInputStream transferred = new CountingInputStream(exchange.body());
+						// only a 200 carries a feed, others (304 in particular) may announce an encoding of their empty body
+						final CountingInputStream decoded = new CountingInputStream(exchange.status() == 200
+								? decode(transferred, exchange.header("Content-Encoding")) : transferred);
+						return new UpstreamResponse(currentUrl, exchange, transferred, decoded, permit::release);
+					} catch (final IOException | RuntimeException e) {
+						closeQuietly(exchange);
+						permit.release();
+						throw e;
+					}
+			}
+		}
+
+		throw new IOException("maximum number of redirects reached");
+	}
+
+	/**
+	 * @return number of requests currently holding a connection to the given host
+	 */
+	public int activeConnections(final String host) {
+		final Semaphore permit = this.permits.get(host);
+		return permit == null ? 0 : this.maxConnectionsPerHost - permit.availablePermits();
+	}
+
+	private Semaphore acquire(final String host, final int timeout) throws IOException {
+		final Semaphore permit = this.permits.computeIfAbsent(host.toLowerCase(Locale.ROOT), key -> new Semaphore(this.maxConnectionsPerHost, Boolean.TRUE));
+		try {
+			if (!permit.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+				throw new IOException("no connection to '" + host + "' available in time");
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for a connection to '" + host + "'", e);
+		}
+		return permit;
+	}
+
+	/**
+	 * Wraps the given response body with a decoder according to its content encoding.
+	 * Unknown or missing encodings are passed through as is. A gzip header is read right away, the body must not be empty.
+	 */
+	static InputStream decode(final InputStream stream, final String contentEncoding) throws IOException {
+		if (contentEncoding == null)
+			return stream;
+
+		switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+			case "gzip":
+			case "x-gzip":
+				return new GZIPInputStream(stream, 8192);
+			case "deflate": // either zlib wrapped (RFC 1950) or raw (RFC 1951) as sent by some servers
+				final PushbackInputStream pushback = new PushbackInputStream(stream, 2);
+				final byte[] header = new byte[2];
+				final int read = pushback.read(header);
+				if (read > 0)
+					pushback.unread(header, 0, read);
+				final boolean zlib = read == 2
+						&& (header[0] & 0x0F) == 8
+						&& (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+				return new InflaterInputStream(pushback, new Inflater(!zlib), 8192) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							this.inf.end(); // not done for custom inflaters
+						}
+					}
+				};
+			default:
+				return stream;
+		}
+	}
+
+	private static void closeQuietly(final Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (final IOException e) {
+			// nothing to do
+		}
+	}
+}
@@ -0,0 +1,298 @@
+package com.wilke.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Observed health of upstream hosts: a decaying latency histogram and a circuit breaker per host.
+ * <p>
+ * Timeouts and the delay of hedged requests are derived from the latency percentiles once enough samples
+ * have been recorded, the configured timeout being the upper bound. Requests timing out count as samples of
+ * their timeout, and requests following a failure as well as probes get the configured timeout, so a host that
+ * slowed down is not cut off by a timeout derived from its former latency. After a number of consecutive failures
+ * the circuit of a host opens and requests fail fast. Once the open period is over a single probe is let through
+ * (half-open), its outcome either closes the circuit or opens it again for twice as long.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class HostHealth {
+
+	private static final Logger log = LoggerFactory.getLogger(HostHealth.class);
+
+	/**
+	 * Number of samples required before percentiles are trusted.
+	 */
+	private static final int MIN_SAMPLES = 20;
+
+	/**
+	 * Number of samples after which all bucket counts are halved, so that old observations fade out.
+	 */
+	private static final int DECAY_PERIOD = 200;
+
+	/**
+	 * Histogram buckets grow by a factor of 2^(1/4), covering 1 ms to about 65 seconds.
+	 */
+	private static final int BUCKETS = 64;
+	private static final double BUCKET_GROWTH = Math.pow(2d, 0.25d);
+
+	/**
+	 * Timeouts are a multiple of the observed p99 latency.
+	 */
+	private static final int TIMEOUT_FACTOR = 3;
+
+	/**
+	 * Lower bound of derived timeouts in milliseconds.
+	 */
+	private static final int MIN_TIMEOUT = 1000;
+
+	/**
+	 * Fraction of requests per host that may be hedged.
+	 */
+	private static final double HEDGE_BUDGET = 0.1d;
+
+	/**
+	 * Upper bound of the open period of a repeatedly failing host in milliseconds.
+	 */
+	private static final long MAX_OPEN_PERIOD = 600_000L;
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	// maps host to its statistics
+	private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+	private final int maxTimeout;
+	private final int failureThreshold;
+	private final long openPeriod;
+	private final boolean hedging;
+
+	/**
+	 * @param maxTimeout timeout in milliseconds used as long as too few samples are known and as upper bound
+	 * @param failureThreshold number of consecutive failures opening the circuit of a host
+	 * @param openPeriod time in milliseconds requests to a host fail fast after its circuit has been opened
+	 * @param hedging whether requests running past the p95 latency are duplicated
+	 * @exception IllegalArgumentException if any number is < 1
+	 */
+	public HostHealth(final int maxTimeout, final int failureThreshold, final long openPeriod, final boolean hedging) {
+		if (maxTimeout < 1 || failureThreshold < 1 || openPeriod < 1)
+			throw new IllegalArgumentException();
+
+		this.maxTimeout = maxTimeout;
+		this.failureThreshold = failureThreshold;
+		this.openPeriod = openPeriod;
+		this.hedging = hedging;
+	}
+
+	/**
+	 * Checks whether a request to the given host may be sent, to be called before opening any connection.
+	 * Every admitted request must be followed by {@link #success} or {@link #failure}.
+	 *
+	 * @exception CircuitOpenException if the circuit of the host is open or a probe is already in progress
+	 */
+	public void admit(final String host) throws CircuitOpenException {
+		final Host stats = this.stats(host);
+		synchronized (stats) {
+			stats.requests++;
+
+			switch (stats.state) {
+				case CLOSED:
+					return;
+				case OPEN:
+					if (System.currentTimeMillis() >= stats.openUntil) {
+						stats.state = State.HALF_OPEN; // let a single probe through
+						log.info("Probing host '{}'", host);
+						return;
+					}
+					throw new CircuitOpenException(host);
+				default:
+					throw new CircuitOpenException(host);
+			}
+		}
+	}
+
+	/**
+	 * @return timeout in milliseconds for the next request to the given host
+	 */
+	public int timeout(final String host) {
+		final Host stats = this.stats(host);
+		synchronized (stats) {
+			if (stats.samples < MIN_SAMPLES || stats.failures > 0 || stats.state != State.CLOSED)
+				return this.maxTimeout;
+
+			return (int) Math.max(MIN_TIMEOUT, Math.min(this.maxTimeout, stats.percentile(0.99d) * TIMEOUT_FACTOR));
+		}
+	}
+
+	/**
+	 * @return delay in milliseconds after which a request to the given host should be hedged or -1 for none
+	 */
+	public long hedgeDelay(final String host) {
+		if (!this.hedging)
+			return -1L;
+
+		final Host stats = this.stats(host);
+		synchronized (stats) {
+			if (stats.samples < MIN_SAMPLES || stats.state != State.CLOSED)
+				return -1L;
+
+			return stats.percentile(0.95d);
+		}
+	}
+
+	/**
+	 * Claims a hedged request for the given host unless the hedge budget is exhausted.
+	 */
+	public boolean tryHedge(final String host) {
+		final Host stats = this.stats(host);
+		synchronized (stats) {
+			if (stats.state != State.CLOSED || stats.hedges >= stats.requests * HEDGE_BUDGET)
+				return Boolean.FALSE;
+
+			stats.hedges++;
+			return Boolean.TRUE;
+		}
+	}
+
+	/**
+	 * Records a request answered by the given host (regardless of its status, unless a server error).
+	 */
+	public void success(final String host, final long latency) {
+		final Host stats = this.stats(host);
+		synchronized (stats) {
+			stats.record(latency);
+			stats.failures = 0;
+
+			if (stats.state != State.CLOSED) {
+				stats.state = State.CLOSED;
+				stats.openPeriod = this.openPeriod;
+				log.info("Circuit of host '{}' closed", host);
+			}
+		}
+	}
+
+	/**
+	 * Records a request to the given host that failed to connect, timed out or was answered by a server error.
+	 */
+	public void failure(final String host) {
+		final Host stats = this.stats(host);
+		synchronized (stats) {
+			this.failed(host, stats);
+		}
+	}
+
+	/**
+	 * Records a request to the given host that timed out, a failure taking at least the given time.
+	 *
+	 * @param timeout of the request in milliseconds
+	 */
+	public void timedOut(final String host, final long timeout) {
+		final Host stats = this.stats(host);
+		synchronized (stats) {
+			stats.record(timeout);
+			this.failed(host, stats);
+		}
+	}
+
+	public State state(final String host) {
+		final Host stats = this.stats(host);
+		synchronized (stats) {
+			return stats.state;
+		}
+	}
+
+	/**
+	 * @return latency in milliseconds below which the given fraction of recent requests was answered or -1 if unknown
+	 */
+	public long percentile(final String host, final double quantile) {
+		final Host stats = this.stats(host);
+		synchronized (stats) {
+			return stats.samples == 0 ? -1L : stats.percentile(quantile);
+		}
+	}
+
+	/**
+	 * Counts a failure, opening the circuit if need be. To be called while holding the lock of the given stats.
+	 */
+	private void failed(final String host, final Host stats) {
+		stats.failures++;
+
+		if (stats.state == State.HALF_OPEN) {
+			stats.openPeriod = Math.min(MAX_OPEN_PERIOD, stats.openPeriod * 2);
+			this.open(host, stats);
+		} else if (stats.state == State.CLOSED && stats.failures >= this.failureThreshold) {
+			stats.openPeriod = this.openPeriod;
+			this.open(host, stats);
+		}
+	}
+
+	private void open(final String host, final Host stats) {
+		stats.state = State.OPEN;
+		stats.openUntil = System.currentTimeMillis() + stats.openPeriod;
+		log.warn("Circuit of host '{}' opened for {} seconds after {} consecutive failures", host, stats.openPeriod / 1000L, stats.failures);
+	}
+
+	private Host stats(final String host) {
+		return this.hosts.computeIfAbsent(host.toLowerCase(Locale.ROOT), key -> new Host(this.openPeriod));
+	}
+
+	/**
+	 * Fails a request without contacting the host.
+	 */
+	public static final class CircuitOpenException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		CircuitOpenException(final String host) {
+			super("circuit of host '" + host + "' is open");
+		}
+	}
+
+	private static final class Host {
+		final double[] buckets = new double[BUCKETS];
+		double weight;
+		int samples;
+
+		State state = State.CLOSED;
+		int failures;
+		long openUntil;
+		long openPeriod;
+
+		long requests;
+		long hedges;
+
+		Host(final long openPeriod) {
+			this.openPeriod = openPeriod;
+		}
+
+		void record(final long latency) {
+			final int bucket = (int) Math.min(BUCKETS - 1, Math.max(0L, Math.round(Math.log(Math.max(1L, latency)) / Math.log(BUCKET_GROWTH))));
+			this.buckets[bucket]++;
+			this.weight++;
+
+			if (++this.samples % DECAY_PERIOD == 0) {
+				for (int i = 0; i < BUCKETS; i++)
+					this.buckets[i] /= 2d;
+				this.weight /= 2d;
+				this.requests /= 2;
+				this.hedges /= 2;
+			}
+		}
+
+		/**
+		 * @return upper bound of the bucket holding the given quantile
+		 */
+		long percentile(final double quantile) {
+			final double rank = this.weight * quantile;
+			double cumulated = 0d;
+			for (int i = 0; i < BUCKETS; i++) {
+				cumulated += this.buckets[i];
+				if (cumulated >= rank)
+					return (long) Math.ceil(Math.pow(BUCKET_GROWTH, i + 0.5d));
+			}
+			return (long) Math.ceil(Math.pow(BUCKET_GROWTH, BUCKETS));
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package com.wilke.http;
+
+import com.wilke.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host-aware scheduler in front of an executor.
+ * <p>
+ * Tasks wait in a FIFO queue per host and are handed over to the executor only if their host is below its
+ * concurrency cap (bulkhead) and its token bucket permits another request (politeness). A slow or busy host
+ * therefore never occupies more than its share of workers, waiting tasks do not hold any thread at all.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class HostScheduler {
+
+	private static final Logger log = LoggerFactory.getLogger(HostScheduler.class);
+
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(DaemonThreadFactory.INSTANCE);
+
+	// maps host to its queue and limits
+	private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+	private final ExecutorService executor;
+	private final int maxConcurrentPerHost;
+	private final double requestsPerSecond;
+	private final int burst;
+
+	/**
+	 * @param maxConcurrentPerHost maximum number of tasks running per host at the same time
+	 * @param requestsPerSecond sustained rate of tasks started per host
+	 * @param burst number of tasks that may be started per host at once after a quiet period
+	 * @exception NullPointerException if executor is null
+	 * @exception IllegalArgumentException if any number is not positive
+	 */
+	public HostScheduler(final ExecutorService executor, final int maxConcurrentPerHost, final double requestsPerSecond, final int burst) {
+		if (maxConcurrentPerHost < 1 || requestsPerSecond <= 0d || burst < 1)
+			throw new IllegalArgumentException();
+
+		this.executor = Objects.requireNonNull(executor);
+		this.maxConcurrentPerHost = maxConcurrentPerHost;
+		this.requestsPerSecond = requestsPerSecond;
+		this.burst = burst;
+	}
+
+	/**
+	 * Queues the given task for the given host.
+	 * The returned future fails with a {@link RejectedExecutionException} if the executor has been shut down.
+	 *
+	 * @see #cancel(String, CompletableFuture)
+	 */
+	public <T> CompletableFuture<T> submit(final String host, final Callable<T> task) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final Host queue = this.hosts.computeIfAbsent(host, key -> new Host());
+
+		final Job<T> job = new Job<>(task, future);
+		final int depth;
+		synchronized (queue) {
+			queue.waiting.add(job);
+			depth = queue.waiting.size();
+		}
+
+		if (depth > this.burst)
+			log.debug("{} tasks waiting for host '{}'", depth, host);
+
+		this.dispatch(host, queue);
+		return future;
+	}
+
+	/**
+	 * Drops the task of the given future unless it has been started already, running tasks are left to complete it.
+	 *
+	 * @return true if the task has been dropped and its future cancelled
+	 */
+	public boolean cancel(final String host, final CompletableFuture<?> future) {
+		final Host queue = this.hosts.get(host);
+		if (queue == null)
+			return Boolean.FALSE;
+
+		synchronized (queue) {
+			if (!queue.waiting.removeIf(job -> job.future == future))
+				return Boolean.FALSE;
+		}
+
+		return future.cancel(Boolean.FALSE);
+	}
+
+	/**
+	 * @return number of tasks waiting for the given host
+	 */
+	public int queueDepth(final String host) {
+		final Host queue = this.hosts.get(host);
+		if (queue == null)
+			return 0;
+
+		synchronized (queue) {
+			return queue.waiting.size();
+		}
+	}
+
+	/**
+	 * @return number of tasks waiting per host, sorted by host
+	 */
+	public Map<String, Integer> queueDepths() {
+		final Map<String, Integer> depths = new TreeMap<>();
+		for (final String host : this.hosts.keySet())
+			depths.put(host, this.queueDepth(host));
+		return Collections.unmodifiableMap(depths);
+	}
+
+	/**
+	 * @return number of tasks running for the given host
+	 */
+	public int running(final String host) {
+		final Host queue = this.hosts.get(host);
+		if (queue == null)
+			return 0;
+
+		synchronized (queue) {
+			return queue.running;
+		}
+	}
+
+	public void shutdown() {
+		this.timer.shutdownNow();
+	}
+
+	private void dispatch(final String host, final Host queue) {
+		synchronized (queue) {
+			while (queue.running < this.maxConcurrentPerHost && !queue.waiting.isEmpty()) {
+				final long now = System.nanoTime();
+				queue.tokens = Math.min(this.burst, queue.tokens + (now - queue.refilledAt) / 1e9d * this.requestsPerSecond);
+				queue.refilledAt = now;
+
+				if (queue.tokens < 1d) { // wake up once the next token is available
+					if (!queue.wakeUpPending) {
+						queue.wakeUpPending = Boolean.TRUE;
+						final long delay = (long) Math.ceil((1d - queue.tokens) / this.requestsPerSecond * 1e9d);
+						try {
+							this.timer.schedule(() -> {
+								synchronized (queue) {
+									queue.wakeUpPending = Boolean.FALSE;
+								}
+								this.dispatch(host, queue);
+							}, delay, TimeUnit.NANOSECONDS);
+						} catch (final RejectedExecutionException e) {
+							queue.wakeUpPending = Boolean.FALSE; // shut down
+						}
+					}
+					return;
+				}
+
+				final Job<?> job = queue.waiting.poll();
+				if (job.future.isDone())
+					continue; // cancelled meanwhile, no token needed
+
+				queue.tokens -= 1d;
+				queue.running++;
+
+				try {
+					this.executor.execute(() -> {
+						try {
+							job.run();
+						} finally {
+							synchronized (queue) {
+								queue.running--;
+							}
+							this.dispatch(host, queue);
+						}
+					});
+				} catch (final RejectedExecutionException e) {
+					queue.running--;
+					job.future.completeExceptionally(e);
+					for (Job<?> waiting; (waiting = queue.waiting.poll()) != null; )
+						waiting.future.completeExceptionally(e);
+					return;
+				}
+			}
+		}
+	}
+
+	private final class Host {
+		final Queue<Job<?>> waiting = new ArrayDeque<>();
+		int running;
+		double tokens = HostScheduler.this.burst;
+		long refilledAt = System.nanoTime();
+		boolean wakeUpPending;
+	}
+
+	private static final class Job<T> {
+		final Callable<T> task;
+		final CompletableFuture<T> future;
+
+		Job(final Callable<T> task, final CompletableFuture<T> future) {
+			this.task = task;
+			this.future = future;
+		}
+
+		void run() {
+			if (this.future.isDone())
+				return; // cancelled
+
+			try {
+				this.future.complete(this.task.call());
+			} catch (final Throwable e) {
+				this.future.completeExceptionally(e);
+			}
+		}
+	}
+}
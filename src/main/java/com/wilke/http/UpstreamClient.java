@@ -0,0 +1,29 @@
+package com.wilke.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * HTTP client used to fetch upstream feeds.
+ * <p>
+ * Implementations keep connections alive and bound the number of connections per host.
+ * Redirects, timeouts and content decoding are handled the same way by every implementation.
+ *
+ * @see com.wilke.http.UpstreamClients#create(String, int, int, int)
+ */
+public interface UpstreamClient extends Closeable {
+
+	/**
+	 * Performs a GET request following up to three redirects.
+	 * The response must be closed to release its connection (for reuse).
+	 *
+	 * @throws IOException on connection failures or timeouts
+	 */
+	UpstreamResponse get(UpstreamRequest request) throws IOException;
+
+	/**
+	 * Releases all pooled connections.
+	 */
+	@Override
+	void close();
+}
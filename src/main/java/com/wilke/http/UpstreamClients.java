@@ -0,0 +1,42 @@
+package com.wilke.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Factory choosing the upstream client implementation.
+ */
+public final class UpstreamClients {
+
+	private static final Logger log = LoggerFactory.getLogger(UpstreamClients.class);
+
+	public static final String AUTO = "auto";
+	public static final String URL_CONNECTION = "urlconnection";
+	public static final String HTTP_CLIENT = "httpclient";
+
+	/**
+	 * Compiled only on Java 11+ (see the build's java11 profile).
+	 */
+	private static final String HTTP_CLIENT_CLASS = "com.wilke.http.HttpClientUpstreamClient";
+
+	private UpstreamClients() {}
+
+	/**
+	 * @param type one of {@value #AUTO}, {@value #URL_CONNECTION} or {@value #HTTP_CLIENT};
+	 *             "auto" prefers the HTTP/2 capable client when running on Java 11+
+	 */
+	public static UpstreamClient create(final String type, final int connectTimeout, final int readTimeout, final int maxConnectionsPerHost) {
+		if (!URL_CONNECTION.equals(type))
+			try {
+				Class.forName("java.net.http.HttpClient");
+				return (UpstreamClient) Class.forName(HTTP_CLIENT_CLASS)
+						.getConstructor(int.class, int.class, int.class)
+						.newInstance(connectTimeout, readTimeout, maxConnectionsPerHost);
+			} catch (final ReflectiveOperationException | LinkageError e) {
+				if (HTTP_CLIENT.equals(type))
+					log.warn("HTTP/2 capable client not available, falling back to HttpURLConnection: {}", e.toString());
+			}
+
+		return new UrlConnectionUpstreamClient(connectTimeout, readTimeout, maxConnectionsPerHost);
+	}
+}
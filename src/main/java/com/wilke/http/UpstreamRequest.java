@@ -0,0 +1,40 @@
+package com.wilke.http;
+
+import java.util.Objects;
+
+/**
+ * Conditional or unconditional GET request of an upstream URL.
+ * An instance is immutable.
+ */
+public final class UpstreamRequest {
+
+	public final String url;
+	public final String etag;
+	public final String lastModified;
+	public final int timeout;
+
+	/**
+	 * @param etag value for "If-None-Match", may be null
+	 * @param lastModified value for "If-Modified-Since", may be null
+	 * @param timeout connect and read timeout in milliseconds, limited by the client's ones, 0 for the client's ones
+	 * @exception NullPointerException if url is null
+	 * @exception IllegalArgumentException if timeout < 0
+	 */
+	public UpstreamRequest(final String url, final String etag, final String lastModified, final int timeout) {
+		if (timeout < 0)
+			throw new IllegalArgumentException();
+
+		this.url = Objects.requireNonNull(url);
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.timeout = timeout;
+	}
+
+	public UpstreamRequest(final String url, final String etag, final String lastModified) {
+		this(url, etag, lastModified, 0);
+	}
+
+	public UpstreamRequest(final String url) {
+		this(url, null, null);
+	}
+}
@@ -0,0 +1,84 @@
+package com.wilke.http;
+
+import com.wilke.util.CountingInputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Response of an upstream request. Its body is decoded already (gzip / deflate).
+ * An instance is not thread-safe.
+ */
+public final class UpstreamResponse implements Closeable {
+
+	private final String url;
+	private final AbstractUpstreamClient.Exchange exchange;
+	private final CountingInputStream transferred;
+	private final CountingInputStream decoded;
+	private final Runnable release;
+	private boolean isClosed;
+
+	UpstreamResponse(final String url, final AbstractUpstreamClient.Exchange exchange, final CountingInputStream transferred,
+			final CountingInputStream decoded, final Runnable release) {
+		this.url = url;
+		this.exchange = exchange;
+		this.transferred = transferred;
+		this.decoded = decoded;
+		this.release = release;
+	}
+
+	/**
+	 * @return URL the response was received from (after redirects)
+	 */
+	public String url() {
+		return this.url;
+	}
+
+	public int status() {
+		return this.exchange.status();
+	}
+
+	/**
+	 * @return first value of the given response header or null
+	 */
+	public String header(final String name) {
+		return this.exchange.header(name);
+	}
+
+	/**
+	 * @return decoded response body
+	 */
+	public InputStream body() {
+		return this.decoded;
+	}
+
+	/**
+	 * @return number of bytes of the body read from the wire so far (possibly compressed)
+	 */
+	public long transferredBytes() {
+		return this.transferred.getCount();
+	}
+
+	/**
+	 * @return number of bytes of the body read after decoding so far
+	 */
+	public long decodedBytes() {
+		return this.decoded.getCount();
+	}
+
+	@Override
+	public void close() {
+		if (this.isClosed)
+			return;
+
+		this.isClosed = Boolean.TRUE;
+		try {
+			this.decoded.close();
+		} catch (final IOException e) {
+			// nothing to do, connection is dropped instead of reused
+		} finally {
+			this.release.run();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.wilke.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Upstream client based on {@link HttpURLConnection} (Java 8+).
+ * <p>
+ * Connections are kept alive by the JDK's internal keep-alive cache as long as each body is closed
+ * (never {@link HttpURLConnection#disconnect()}). The connections in use per host are bound by the permits
+ * of {@link AbstractUpstreamClient}, the idle ones kept by the JDK follow its own settings.
+ */
+public final class UrlConnectionUpstreamClient extends AbstractUpstreamClient {
+
+	public UrlConnectionUpstreamClient(final int connectTimeout, final int readTimeout, final int maxConnectionsPerHost) {
+		super(connectTimeout, readTimeout, maxConnectionsPerHost);
+	}
+
+	@Override
+	protected Exchange exchange(final URL url, final Map<String, String> headers, final int connectTimeout, final int readTimeout) throws IOException {
+		// dependent of system proxy
+		final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setInstanceFollowRedirects(Boolean.FALSE); // redirects are handled across protocols by the caller
+		conn.setUseCaches(Boolean.FALSE);
+		conn.setConnectTimeout(connectTimeout);
+		conn.setReadTimeout(readTimeout);
+		for (final Map.Entry<String, String> header : headers.entrySet())
+			conn.setRequestProperty(header.getKey(), header.getValue());
+		conn.connect();
+
+		final int status = conn.getResponseCode();
+
+		return new Exchange() {
+			private InputStream body;
+
+			@Override
+			public int status() {
+				return status;
+			}
+
+			@Override
+			public String header(final String name) {
+				return conn.getHeaderField(name);
+			}
+
+			@Override
+			public InputStream body() throws IOException {
+				if (this.body == null) {
+					final InputStream stream = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+					this.body = stream != null ? stream : new ByteArrayInputStream(new byte[0]);
+				}
+				return this.body;
+			}
+
+			@Override
+			public void close() throws IOException {
+				this.body().close(); // returns the connection to the keep-alive cache
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		// the keep-alive cache is owned by the JDK
+	}
+}
@@ -0,0 +1,33 @@
+package com.wilke.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonically increasing count, cheap to update from many threads at once.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class Counter {
+
+	private final LongAdder count = new LongAdder();
+
+	Counter() {}
+
+	public void increment() {
+		this.count.increment();
+	}
+
+	/**
+	 * @exception IllegalArgumentException if amount < 0
+	 */
+	public void add(final long amount) {
+		if (amount < 0L)
+			throw new IllegalArgumentException();
+
+		this.count.add(amount);
+	}
+
+	public long count() {
+		return this.count.sum();
+	}
+}
@@ -0,0 +1,113 @@
+package com.wilke.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Custom events for the Java Flight Recorder: upstream fetches, feed parses, aggregations and store rescans.
+ * <p>
+ * Each {@code begin} method returns null unless its event is being recorded, so nothing is allocated or measured
+ * while no recording runs: the cost is a single check. The events are implemented with {@code jdk.jfr}, compiled
+ * only on Java 11+ (see the build's java11 profile) and selected at runtime when available. Otherwise no events
+ * are recorded at all.
+ * <p>
+ * This class is thread-safe.
+ */
+public abstract class FlightEvents {
+
+	private static final Logger log = LoggerFactory.getLogger(FlightEvents.class);
+
+	/**
+	 * Compiled only on Java 11+.
+	 */
+	private static final String JFR_CLASS = "com.wilke.metrics.JfrFlightEvents";
+
+	private static final FlightEvents INSTANCE = create();
+
+	/**
+	 * @return the events of this JVM
+	 */
+	public static FlightEvents get() {
+		return INSTANCE;
+	}
+
+	private static FlightEvents create() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (FlightEvents) Class.forName(JFR_CLASS).getConstructor().newInstance();
+		} catch (final ReflectiveOperationException | LinkageError e) {
+			log.debug("Flight recorder events not available: {}", e.toString());
+			return new FlightEvents() {};
+		}
+	}
+
+	/**
+	 * @return null unless recorded
+	 */
+	public Fetch beginFetch() {
+		return null;
+	}
+
+	/**
+	 * @return null unless recorded
+	 */
+	public Parse beginParse() {
+		return null;
+	}
+
+	/**
+	 * @return null unless recorded
+	 */
+	public Aggregation beginAggregation() {
+		return null;
+	}
+
+	/**
+	 * @return null unless recorded
+	 */
+	public StoreScan beginStoreScan() {
+		return null;
+	}
+
+	/**
+	 * A single request of an upstream feed.
+	 */
+	public interface Fetch {
+		/**
+		 * @param status response code, -1 if none was received
+		 * @param bytes number of bytes transferred, possibly compressed
+		 */
+		void record(String url, String host, int status, long bytes);
+	}
+
+	/**
+	 * Parsing of an upstream feed.
+	 */
+	public interface Parse {
+		/**
+		 * @param items number of items parsed, -1 if parsing failed
+		 */
+		void record(int items, boolean passthrough);
+	}
+
+	/**
+	 * Combination of the upstream feeds of an aggregate.
+	 */
+	public interface Aggregation {
+		/**
+		 * @param feeds number of upstream feeds of the aggregate
+		 * @param missing number of them left out
+		 */
+		void record(String identifier, int feeds, int missing);
+	}
+
+	/**
+	 * Rescan of the json files of the store.
+	 */
+	public interface StoreScan {
+		/**
+		 * @param failures number of files that could not be parsed
+		 */
+		void record(int files, int aggregates, int failures);
+	}
+}
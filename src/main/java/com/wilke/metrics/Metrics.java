@@ -0,0 +1,222 @@
+package com.wilke.metrics;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the application's metrics, written in the Prometheus text format (version 0.0.4).
+ * <p>
+ * Counters and histograms are registered once, typically into static fields, and updated without locking.
+ * Values kept elsewhere already (cache statistics, queue depths, ...) are registered as suppliers
+ * read on {@link #write} only. Registering a name again returns the metric registered before,
+ * suppliers are replaced though, e.g. once the context is initialized again.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class Metrics {
+
+	private static final Metrics REGISTRY = new Metrics();
+
+	/**
+	 * Label value of metrics without a label.
+	 */
+	private static final String SINGLE = "";
+
+	/**
+	 * Content type of {@link #write}.
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	// maps name to metric, sorted for a stable output
+	private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+	/**
+	 * @return the application's registry
+	 */
+	public static Metrics registry() {
+		return REGISTRY;
+	}
+
+	public Counter counter(final String name, final String help) {
+		return this.register(name, help, "counter", null, Counter::new).get(SINGLE);
+	}
+
+	public Histogram histogram(final String name, final String help) {
+		return this.register(name, help, "histogram", null, Histogram::new).get(SINGLE);
+	}
+
+	/**
+	 * @param label name of the label telling the counters apart
+	 */
+	public Family<Counter> counters(final String name, final String help, final String label) {
+		return this.register(name, help, "counter", Objects.requireNonNull(label), Counter::new);
+	}
+
+	/**
+	 * @param label name of the label telling the histograms apart
+	 */
+	public Family<Histogram> histograms(final String name, final String help, final String label) {
+		return this.register(name, help, "histogram", Objects.requireNonNull(label), Histogram::new);
+	}
+
+	/**
+	 * Registers a count kept elsewhere, it must never decrease.
+	 */
+	public void counter(final String name, final String help, final DoubleSupplier value) {
+		this.metrics.put(name, new Metric(name, help, "counter", null, () -> Collections.singletonMap(SINGLE, value.getAsDouble())));
+	}
+
+	/**
+	 * Registers counts kept elsewhere, they must never decrease.
+	 *
+	 * @param label name of the label telling the counts apart
+	 * @param values maps label value to count
+	 */
+	public void counters(final String name, final String help, final String label, final Supplier<Map<String, ? extends Number>> values) {
+		this.metrics.put(name, new Metric(name, help, "counter", Objects.requireNonNull(label), values));
+	}
+
+	public void gauge(final String name, final String help, final DoubleSupplier value) {
+		this.metrics.put(name, new Metric(name, help, "gauge", null, () -> Collections.singletonMap(SINGLE, value.getAsDouble())));
+	}
+
+	/**
+	 * @param label name of the label telling the values apart
+	 * @param values maps label value to value
+	 */
+	public void gauges(final String name, final String help, final String label, final Supplier<Map<String, ? extends Number>> values) {
+		this.metrics.put(name, new Metric(name, help, "gauge", Objects.requireNonNull(label), values));
+	}
+
+	/**
+	 * Writes every metric in the Prometheus text format.
+	 */
+	public void write(final Appendable out) throws IOException {
+		final StringBuilder text = new StringBuilder(8192);
+		for (final Metric metric : this.metrics.values())
+			metric.write(text);
+		out.append(text);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Family<T> register(final String name, final String help, final String type, final String label, final Supplier<T> factory) {
+		final Metric metric = this.metrics.computeIfAbsent(name, key -> new Metric(name, help, type, label, new Family<>(factory)));
+		if (!type.equals(metric.type) || !Objects.equals(label, metric.label) || metric.family == null)
+			throw new IllegalArgumentException("metric '" + name + "' registered differently already");
+		return (Family<T>) metric.family;
+	}
+
+	/**
+	 * Metrics of the same name told apart by the value of a single label.
+	 */
+	public static final class Family<T> {
+		private final Map<String, T> members = new ConcurrentHashMap<>();
+		private final Function<String, T> factory;
+
+		Family(final Supplier<T> factory) {
+			this.factory = value -> factory.get();
+		}
+
+		/**
+		 * @return the metric of the given label value, created on first use
+		 */
+		public T get(final String value) {
+			final T member = this.members.get(value); // no locking once created
+			return member != null ? member : this.members.computeIfAbsent(value, this.factory);
+		}
+	}
+
+	private static final class Metric {
+		final String name;
+		final String help;
+		final String type;
+		final String label;
+		final Family<?> family; // registered metrics
+		final Supplier<Map<String, ? extends Number>> values; // registered suppliers
+
+		Metric(final String name, final String help, final String type, final String label, final Family<?> family) {
+			this(name, help, type, label, family, null);
+		}
+
+		Metric(final String name, final String help, final String type, final String label, final Supplier<Map<String, ? extends Number>> values) {
+			this(name, help, type, label, null, values);
+		}
+
+		private Metric(final String name, final String help, final String type, final String label,
+				final Family<?> family, final Supplier<Map<String, ? extends Number>> values) {
+			if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*"))
+				throw new IllegalArgumentException("invalid metric name '" + name + "'");
+
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.label = label;
+			this.family = family;
+			this.values = values;
+		}
+
+		void write(final StringBuilder text) {
+			final Map<String, ?> members = this.family != null ? this.family.members : this.values.get();
+			if (members == null || members.isEmpty())
+				return;
+
+			text.append("# HELP ").append(this.name).append(' ').append(this.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+			text.append("# TYPE ").append(this.name).append(' ').append(this.type).append('\n');
+
+			final Map<String, Object> sorted = new TreeMap<>();
+			for (final Map.Entry<String, ?> member : members.entrySet())
+				sorted.put(Objects.toString(member.getKey(), SINGLE), member.getValue());
+
+			for (final Map.Entry<String, Object> member : sorted.entrySet()) {
+				final String labels = this.label == null ? "" : this.label + "=\"" + escape(member.getKey()) + '"';
+				final Object value = member.getValue();
+
+				if (value instanceof Histogram) {
+					final Histogram histogram = (Histogram) value;
+					final long[] buckets = histogram.buckets();
+					long cumulative = 0L;
+					for (int idx = 0; idx < buckets.length; idx++) {
+						cumulative += buckets[idx];
+						final String bound = idx < Histogram.BOUNDS.length ? format(Histogram.BOUNDS[idx]) : "+Inf";
+						sample(text, this.name + "_bucket", labels + (labels.isEmpty() ? "" : ",") + "le=\"" + bound + '"', cumulative);
+					}
+					sample(text, this.name + "_sum", labels, histogram.sum());
+					sample(text, this.name + "_count", labels, cumulative);
+				} else if (value instanceof Counter) {
+					sample(text, this.name, labels, ((Counter) value).count());
+				} else {
+					sample(text, this.name, labels, ((Number) value).doubleValue());
+				}
+			}
+		}
+
+		private static void sample(final StringBuilder text, final String name, final String labels, final double value) {
+			text.append(name);
+			if (!labels.isEmpty())
+				text.append('{').append(labels).append('}');
+			text.append(' ').append(format(value)).append('\n');
+		}
+
+		private static String format(final double value) {
+			if (Double.isNaN(value))
+				return "NaN";
+			if (Double.isInfinite(value))
+				return value > 0 ? "+Inf" : "-Inf";
+			if (value == Math.rint(value) && Math.abs(value) < 1e15)
+				return Long.toString((long) value);
+			return Double.toString(value);
+		}
+
+		private static String escape(final String value) {
+			return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+		}
+	}
+}
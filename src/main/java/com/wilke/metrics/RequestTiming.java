@@ -0,0 +1,153 @@
+package com.wilke.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Phase timings of a single feed request, written as a {@code Server-Timing} header.
+ * <p>
+ * Phases are recorded by the threads involved (container, aggregation pool, fetching workers) and may overlap:
+ * parsing happens while fetching, for instance. Upstream feeds are tracked as well: the slowest one,
+ * how many were served from the cache, failed or were still outstanding at the deadline.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class RequestTiming {
+
+	/**
+	 * Phases of a feed request, in order.
+	 */
+	public enum Phase {
+		/** finding the aggregate */
+		LOOKUP,
+		/** waiting for an aggregation thread */
+		QUEUE,
+		/** waiting for the upstream feeds, or for an identical combination in progress */
+		FETCH,
+		/** parsing the upstream feeds fetched for this request, overlaps fetch */
+		PARSE,
+		/** serializing (and compressing) the combined feed */
+		RENDER
+	}
+
+	private final long start = System.nanoTime();
+	private final AtomicLongArray durations = new AtomicLongArray(Phase.values().length); // nanoseconds
+
+	private final AtomicInteger upstream = new AtomicInteger();
+	private final AtomicInteger cached = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger timedOut = new AtomicInteger();
+	private volatile boolean coalesced;
+
+	// guarded by this
+	private String slowestUrl;
+	private long slowest = -1L; // nanoseconds
+
+	/**
+	 * @param duration in nanoseconds
+	 */
+	public void add(final Phase phase, final long duration) {
+		this.durations.addAndGet(phase.ordinal(), Math.max(0L, duration));
+	}
+
+	/**
+	 * Records the time elapsed since the given start.
+	 *
+	 * @param start as of {@link System#nanoTime()}
+	 */
+	public void addSince(final Phase phase, final long start) {
+		this.add(phase, System.nanoTime() - start);
+	}
+
+	/**
+	 * @param duration time in nanoseconds the given upstream feed took to arrive
+	 */
+	public void upstream(final String url, final long duration, final boolean isFailed) {
+		this.upstream.incrementAndGet();
+		if (isFailed)
+			this.failed.incrementAndGet();
+
+		synchronized (this) {
+			if (duration > this.slowest) {
+				this.slowest = duration;
+				this.slowestUrl = url;
+			}
+		}
+	}
+
+	public void cached() {
+		this.upstream.incrementAndGet();
+		this.cached.incrementAndGet();
+	}
+
+	/**
+	 * @param count number of upstream feeds still outstanding at the deadline
+	 */
+	public void timedOut(final int count) {
+		this.upstream.addAndGet(count);
+		this.timedOut.addAndGet(count);
+	}
+
+	/**
+	 * Marks the request as having joined an identical combination in progress, upstream feeds are not tracked then.
+	 */
+	public void coalesced() {
+		this.coalesced = Boolean.TRUE;
+	}
+
+	/**
+	 * @return nanoseconds since the request started
+	 */
+	public long elapsed() {
+		return System.nanoTime() - this.start;
+	}
+
+	/**
+	 * @return value of a {@code Server-Timing} header, e.g.
+	 *         {@code lookup;dur=0.1, queue;dur=0.2, fetch;dur=812.5;desc="feeds=10 cached=7 timedout=1 slowest=https://...", ..., total;dur=830.4}
+	 */
+	public String header() {
+		final StringBuilder header = new StringBuilder(256);
+		for (final Phase phase : Phase.values()) {
+			header.append(phase.name().toLowerCase(Locale.ROOT)).append(";dur=").append(millis(this.durations.get(phase.ordinal())));
+			if (phase == Phase.FETCH)
+				header.append(";desc=\"").append(this.upstream().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+			header.append(", ");
+		}
+		return header.append("total;dur=").append(millis(this.elapsed())).toString();
+	}
+
+	@Override
+	public String toString() {
+		return "RequestTiming[" + this.header() + "]";
+	}
+
+	private String upstream() {
+		if (this.coalesced)
+			return "coalesced";
+
+		final StringBuilder desc = new StringBuilder(128).append("feeds=").append(this.upstream.get());
+		if (this.cached.get() > 0)
+			desc.append(" cached=").append(this.cached.get());
+		if (this.failed.get() > 0)
+			desc.append(" failed=").append(this.failed.get());
+		if (this.timedOut.get() > 0)
+			desc.append(" timedout=").append(this.timedOut.get());
+
+		synchronized (this) {
+			if (this.slowestUrl != null)
+				desc.append(" slowest=").append(this.slowestUrl).append(' ').append(millis(this.slowest)).append("ms");
+		}
+		return desc.toString();
+	}
+
+	/**
+	 * @return given nanoseconds in milliseconds with one decimal
+	 */
+	private static String millis(final long nanos) {
+		final long tenths = TimeUnit.NANOSECONDS.toMicros(nanos) / 100L;
+		return (tenths / 10L) + "." + (tenths % 10L);
+	}
+}
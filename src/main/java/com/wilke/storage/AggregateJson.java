@@ -0,0 +1,101 @@
+package com.wilke.storage;
+
+import com.wilke.feed.FeedAggregate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonParsingException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URL;
+
+/**
+ * Json format of a single feed aggregate, shared by the stores.
+ */
+final class AggregateJson {
+
+	private static final Logger log = LoggerFactory.getLogger(AggregateJson.class);
+
+	static final String IDENTIFIER = "identifier";
+	static final String TITLE = "title";
+	static final String DESCRIPTION = "description";
+	static final String URLS = "urls";
+	static final String DEADLINE = "deadline";
+	static final String MAX_ITEMS = "maxItems";
+
+	private AggregateJson() {}
+
+	/**
+	 * @param fileName of the json file read, may be null
+	 */
+	static FeedAggregate read(final InputStream in, final String fileName) throws JsonException {
+		try {
+			final JsonObject json = Json.createReader(in).readObject();
+			if (json.isEmpty())
+				throw new JsonException("JSON file is empty");
+
+			final String identifier = json.getString(IDENTIFIER, null);
+			if (identifier == null || identifier.isEmpty())
+				throw new JsonException("JSON feed item does not have an identifier [" + json + "]");
+
+			final FeedAggregate feed = new FeedAggregate(identifier);
+			feed.title = json.getString(TITLE);
+			feed.description = json.getString(DESCRIPTION);
+			feed.deadline = json.getInt(DEADLINE, 0);
+			feed.maxItems = json.getInt(MAX_ITEMS, 0);
+			feed.fileName = fileName;
+			feed.fileContent = json.getJsonArray(URLS).toString();
+
+			final JsonArray urls = json.getJsonArray(URLS);
+			for (int idx = 0; idx < urls.size(); idx++)
+				if (!feed.addUrl(urls.getString(idx)))
+					log.debug("Duplicate url in user feed '{}': {}", identifier, urls.getString(idx));
+
+			return feed;
+		} catch (NullPointerException | ClassCastException | JsonParsingException e) {
+			throw new JsonException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * User input validation, quick and dirty.
+	 *
+	 * @param newUrls json array of URLs
+	 * @return null if not a json array of valid URLs
+	 */
+	static JsonArray urls(final String newUrls) {
+		try (Reader reader = new StringReader(newUrls)) {
+			final JsonArray urls = Json.createReader(reader).readArray();
+			for (int idx = 0; idx < urls.size(); idx++)
+				new URL(urls.getString(idx));
+			return urls;
+		} catch (JsonException | ClassCastException | IOException e) {
+			log.debug("User input validation error: {}", e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * @return the given aggregate with the given URLs instead of its own
+	 */
+	static JsonObject write(final FeedAggregate aggregate, final JsonArray urls) {
+		final JsonObjectBuilder feed = Json.createObjectBuilder();
+		feed.add(IDENTIFIER, aggregate.identifier);
+		feed.add(TITLE, aggregate.title);
+		feed.add(DESCRIPTION, aggregate.description);
+		feed.add(URLS, urls);
+		if (aggregate.deadline > 0)
+			feed.add(DEADLINE, aggregate.deadline);
+		if (aggregate.maxItems > 0)
+			feed.add(MAX_ITEMS, aggregate.maxItems);
+
+		return feed.build();
+	}
+}
@@ -0,0 +1,52 @@
+package com.wilke.storage;
+
+import com.wilke.feed.FeedAggregate;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Persistence of the feed aggregates, see {@link AggregateStores} for the implementations available.
+ * <p>
+ * Implementations are thread-safe.
+ */
+public interface AggregateStore extends Closeable {
+
+	/**
+	 * @return null if unknown
+	 */
+	FeedAggregate getAggregate(String identifier);
+
+	/**
+	 * Saves the given aggregate with the given upstream URLs, a json array as entered by the user.
+	 * The change shows up in the aggregates returned later on, not necessarily at once.
+	 *
+	 * @return the URLs entered, to be shown again
+	 */
+	String setAggregate(FeedAggregate aggregate, String newUrls);
+
+	/**
+	 * @return all feed aggregates, unmodifiable; possibly a view loading the aggregates while iterating
+	 */
+	Collection<FeedAggregate> getAggregates();
+
+	/**
+	 * @return number of feed aggregates
+	 */
+	int size();
+
+	/**
+	 * Registers a listener being notified with all feed aggregates once loaded and, depending on the store, after
+	 * changes made behind its back.
+	 */
+	void addReloadListener(Consumer<Collection<FeedAggregate>> listener);
+
+	/**
+	 * Registers a listener being notified with each feed aggregate saved (as it is read back), right after saving.
+	 */
+	void addSaveListener(Consumer<FeedAggregate> listener);
+
+	@Override
+	void close();
+}
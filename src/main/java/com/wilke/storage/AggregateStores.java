@@ -0,0 +1,34 @@
+package com.wilke.storage;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Factory choosing the aggregate store implementation.
+ */
+public final class AggregateStores {
+
+	public static final String JSON = "json";
+	public static final String MVSTORE = "mvstore";
+
+	private AggregateStores() {}
+
+	/**
+	 * @param type one of {@value #JSON} or {@value #MVSTORE}
+	 * @param pathToFeeds directory of the json files, migrated into the embedded store once when first opened (if asked to)
+	 * @param pathToStore file of the embedded store
+	 * @param cacheSize number of aggregates kept in memory by the embedded store
+	 * @param migrate whether the embedded store migrates the json files when first opened
+	 * @exception IllegalArgumentException if the type is unknown
+	 * @exception IOException if the embedded store could not be opened
+	 */
+	public static AggregateStore create(final String type, final String pathToFeeds, final String pathToStore, final int cacheSize,
+			final boolean migrate) throws IOException {
+		if (JSON.equals(type))
+			return new JsonStore(pathToFeeds);
+		if (MVSTORE.equals(type))
+			return new MvStore(Paths.get(pathToStore), cacheSize, migrate ? Paths.get(pathToFeeds) : null);
+
+		throw new IllegalArgumentException("Unknown store type: " + type);
+	}
+}
@@ -0,0 +1,565 @@
+package com.wilke.storage;
+
+import com.wilke.feed.rss.RssDates;
+import com.wilke.feed.rss.RssFeed;
+import com.wilke.feed.rss.RssFeed.RssChannel;
+import com.wilke.feed.rss.RssFeed.RssItem;
+import com.wilke.util.DaemonThreadFactory;
+import com.wilke.util.LongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent history of the items of every upstream feed, keyed by their canonical URL.
+ * <p>
+ * Each item (identified by its guid, or link if missing) is appended once to a log of memory-mapped segments
+ * in a directory of its own per URL. The log of a URL is read lazily on first access, an in-memory index then
+ * tells the items already known and their position. Feeds keep their items beyond the window upstream returns
+ * and survive restarts.
+ * <p>
+ * Records are written length last, so a torn write is detected (and ignored) on the next start, as is any record
+ * failing its checksum. Compaction rewrites the logs grown beyond twice the retained number of items and deletes
+ * the logs of URLs no longer referenced by any aggregate for a week.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class ItemHistory implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(ItemHistory.class);
+
+	/**
+	 * Size of a single segment file in bytes.
+	 */
+	static final int SEGMENT_SIZE = 1 << 20;
+
+	/**
+	 * Length and checksum preceding the body of each record.
+	 */
+	private static final int RECORD_HEADER = 8;
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final long COMPACTION_PERIOD = TimeUnit.HOURS.toMillis(1);
+
+	/**
+	 * Time after which the log of a URL no longer referenced is deleted.
+	 */
+	private static final long UNREFERENCED_PERIOD = TimeUnit.DAYS.toMillis(7);
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(DaemonThreadFactory.INSTANCE);
+
+	// maps canonical url to its log
+	private final Map<String, Source> sources = new ConcurrentHashMap<>();
+
+	// maps directory name of a log no longer referenced to the time it was noticed first
+	private final Map<String, Long> unreferenced = new HashMap<>();
+	private volatile Set<String> referenced;
+
+	private final Path directory;
+	private final int retain;
+
+	/**
+	 * @param retain number of newest items per URL served and kept by compaction
+	 * @exception IOException if the directory cannot be created
+	 * @exception IllegalArgumentException if retain < 1
+	 */
+	public ItemHistory(final Path directory, final int retain) throws IOException {
+		if (retain < 1)
+			throw new IllegalArgumentException();
+
+		this.directory = Files.createDirectories(directory);
+		this.retain = retain;
+
+		this.scheduler.scheduleWithFixedDelay(this::compact, COMPACTION_PERIOD, COMPACTION_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Appends the items of the given feed not known yet.
+	 *
+	 * @return number of items appended
+	 */
+	public int append(final String url, final RssFeed feed) {
+		if (feed.channel == null || feed.channel.items.isEmpty())
+			return 0;
+
+		final Source source = this.source(url);
+		synchronized (source) {
+			try {
+				return source.append(feed.channel);
+			} catch (final IOException e) {
+				log.warn("Could not append to history of '{}': {}", url, e.toString());
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns the newest items known of the given URL, newest first, along with the channel properties seen last (since start).
+	 * The very same instance is returned as long as no item is appended, it must not be modified.
+	 *
+	 * @return null if no item is known
+	 */
+	public RssFeed feed(final String url) {
+		final Source source = this.source(url);
+		synchronized (source) {
+			try {
+				return source.view();
+			} catch (final IOException e) {
+				log.warn("Could not read history of '{}': {}", url, e.toString());
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Tells the URLs still referenced, logs of any other URL are deleted by compaction after a week.
+	 *
+	 * @see com.wilke.feed.FeedIndex#urls()
+	 */
+	public void reconcile(final Set<String> urls) {
+		final Set<String> names = new HashSet<>();
+		for (final String url : urls)
+			names.add(name(url));
+		this.referenced = names;
+	}
+
+	/**
+	 * Rewrites oversized logs and deletes the ones no longer referenced. Run hourly in the background.
+	 */
+	public void compact() {
+		try {
+			for (final Map.Entry<String, Source> entry : this.sources.entrySet()) {
+				final Source source = entry.getValue();
+				synchronized (source) {
+					if (source.isLoaded() && source.entries.size() > this.retain * 2)
+						source.compact();
+				}
+			}
+
+			final Set<String> names = this.referenced;
+			if (names != null)
+				this.deleteUnreferenced(names);
+		} catch (final IOException | RuntimeException e) {
+			log.warn("Could not compact history: {}", e.toString());
+		}
+	}
+
+	/**
+	 * Stops compaction and flushes all logs (cannot be used anymore).
+	 */
+	@Override
+	public void close() {
+		this.scheduler.shutdownNow();
+
+		for (final Source source : this.sources.values())
+			synchronized (source) {
+				source.close();
+			}
+		this.sources.clear();
+	}
+
+	private Source source(final String url) {
+		return this.sources.computeIfAbsent(url, key -> new Source(this.directory.resolve(name(key))));
+	}
+
+	private synchronized void deleteUnreferenced(final Set<String> names) throws IOException {
+		final long now = System.currentTimeMillis();
+		final Set<String> present = new HashSet<>();
+
+		try (DirectoryStream<Path> dirs = Files.newDirectoryStream(this.directory, Files::isDirectory)) {
+			for (final Path dir : dirs) {
+				final String name = dir.getFileName().toString();
+				present.add(name);
+				if (names.contains(name))
+					continue;
+
+				final Long since = this.unreferenced.putIfAbsent(name, now);
+				if (since == null || now - since < UNREFERENCED_PERIOD)
+					continue;
+
+				this.sources.entrySet().removeIf(entry -> {
+					if (!entry.getValue().dir.equals(dir))
+						return Boolean.FALSE;
+					synchronized (entry.getValue()) {
+						entry.getValue().close();
+					}
+					return Boolean.TRUE;
+				});
+				delete(dir);
+				this.unreferenced.remove(name);
+				log.info("Deleted history of unreferenced feed ({})", name);
+			}
+		}
+
+		this.unreferenced.keySet().removeIf(name -> names.contains(name) || !present.contains(name));
+	}
+
+	private static void delete(final Path dir) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (final Path file : files)
+				Files.deleteIfExists(file);
+		}
+		Files.deleteIfExists(dir);
+	}
+
+	/**
+	 * @return hex of the first 16 bytes of the SHA-256 of the given URL
+	 */
+	static String name(final String url) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // mandatory for every JRE
+		}
+
+		final byte[] bytes = digest.digest(url.getBytes(StandardCharsets.UTF_8));
+		final StringBuilder hex = new StringBuilder(32);
+		for (int idx = 0; idx < 16; idx++)
+			hex.append(Character.forDigit((bytes[idx] >> 4) & 0xF, 16)).append(Character.forDigit(bytes[idx] & 0xF, 16));
+		return hex.toString();
+	}
+
+	/**
+	 * Log of a single URL, guarded by its own monitor.
+	 */
+	private final class Source {
+		final Path dir;
+		final List<Segment> segments = new ArrayList<>();
+		final List<Entry> entries = new ArrayList<>();
+		LongHashSet keys;
+
+		String title;
+		String link;
+		String description;
+
+		RssFeed view;
+		boolean isViewValid;
+
+		Source(final Path dir) {
+			this.dir = dir;
+		}
+
+		boolean isLoaded() {
+			return this.keys != null;
+		}
+
+		void load() throws IOException {
+			if (this.isLoaded())
+				return;
+
+			this.keys = new LongHashSet(ItemHistory.this.retain);
+			if (!Files.isDirectory(this.dir))
+				return;
+
+			final List<Path> files = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.dir, "*" + SEGMENT_SUFFIX)) {
+				for (final Path file : stream)
+					files.add(file);
+			}
+			files.sort(null); // zero-padded numbers
+
+			for (final Path file : files) {
+				final String name = file.getFileName().toString();
+				final Segment segment = new Segment(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+				this.segments.add(segment);
+				this.scan(segment);
+			}
+
+			log.debug("Loaded history of {} items from {}", this.entries.size(), this.dir);
+		}
+
+		private void scan(final Segment segment) {
+			final ByteBuffer buffer = segment.buffer.duplicate();
+			final CRC32 crc = new CRC32();
+
+			int position = 0;
+			while (position + RECORD_HEADER + 16 <= SEGMENT_SIZE) {
+				final int length = buffer.getInt(position);
+				if (length < 16 || position + RECORD_HEADER + length > SEGMENT_SIZE)
+					break; // end of data or torn write
+
+				final ByteBuffer body = buffer.duplicate();
+				((Buffer) body).limit(position + RECORD_HEADER + length).position(position + RECORD_HEADER); // Java 8 compatible
+				crc.reset();
+				crc.update(body);
+				if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+					log.warn("Corrupt record in {} at {}, ignoring the rest of the segment", segment.file, position);
+					break;
+				}
+
+				final long key = buffer.getLong(position + RECORD_HEADER);
+				final long published = buffer.getLong(position + RECORD_HEADER + 8);
+				if (this.keys.add(key)) // duplicates may be left by an interrupted compaction
+					this.entries.add(new Entry(published, segment, position));
+
+				position += RECORD_HEADER + length;
+			}
+
+			segment.position = position;
+		}
+
+		int append(final RssChannel channel) throws IOException {
+			this.load();
+
+			this.title = channel.title;
+			this.link = channel.link;
+			this.description = channel.description;
+
+			int appended = 0;
+			for (final RssItem item : channel.items) {
+				final String id = item.guid != null ? item.guid : item.link;
+				if (id == null)
+					continue;
+
+				final long key = LongHashSet.hash(id);
+				if (this.keys.contains(key))
+					continue;
+
+				if (this.write(key, item) != null) {
+					this.keys.add(key);
+					appended++;
+				}
+			}
+
+			if (appended > 0) {
+				this.isViewValid = Boolean.FALSE;
+				log.debug("Appended {} items to {}", appended, this.dir);
+			}
+
+			return appended;
+		}
+
+		private Entry write(final long key, final RssItem item) throws IOException {
+			final long published = RssDates.parse(item.pubDate);
+			final byte[] body = encode(key, published, item);
+			if (RECORD_HEADER + body.length > SEGMENT_SIZE) {
+				log.debug("Item '{}' too large for history", item.guid);
+				return null;
+			}
+
+			Segment segment = this.segments.isEmpty() ? null : this.segments.get(this.segments.size() - 1);
+			if (segment == null || segment.position + RECORD_HEADER + body.length > SEGMENT_SIZE) {
+				Files.createDirectories(this.dir);
+				final int number = segment == null ? 0 : segment.number + 1;
+				segment = new Segment(number, this.dir.resolve(String.format("%08d%s", number, SEGMENT_SUFFIX)));
+				this.segments.add(segment);
+			}
+
+			final CRC32 crc = new CRC32();
+			crc.update(body, 0, body.length);
+
+			final int position = segment.position;
+			final ByteBuffer buffer = segment.buffer.duplicate();
+			((Buffer) buffer).position(position + RECORD_HEADER);
+			buffer.put(body);
+			buffer.putInt(position + 4, (int) crc.getValue());
+			buffer.putInt(position, body.length); // last, marks the record complete
+			segment.position = position + RECORD_HEADER + body.length;
+
+			final Entry entry = new Entry(published, segment, position);
+			this.entries.add(entry);
+			return entry;
+		}
+
+		RssFeed view() throws IOException {
+			this.load();
+
+			if (!this.isViewValid) {
+				this.isViewValid = Boolean.TRUE;
+
+				if (this.entries.isEmpty()) {
+					this.view = null;
+				} else {
+					final RssFeed feed = new RssFeed();
+					feed.channel = new RssChannel();
+					feed.channel.title = this.title;
+					feed.channel.link = this.link;
+					feed.channel.description = this.description;
+					for (final Entry entry : this.newest())
+						feed.channel.items.add(entry.read());
+					this.view = feed;
+				}
+			}
+
+			return this.view;
+		}
+
+		private List<Entry> newest() {
+			final List<Entry> sorted = new ArrayList<>(this.entries);
+			sorted.sort((a, b) -> Long.compare(b.published, a.published));
+			return sorted.subList(0, Math.min(ItemHistory.this.retain, sorted.size()));
+		}
+
+		/**
+		 * Rewrites the newest items into new segments, then drops the old ones.
+		 */
+		void compact() throws IOException {
+			final List<RssItem> kept = new ArrayList<>();
+			for (final Entry entry : this.newest())
+				kept.add(entry.read());
+
+			final List<Segment> previous = new ArrayList<>(this.segments);
+			final int dropped = this.entries.size() - kept.size();
+
+			// new segments numbered after the old ones, so a crash in between merely leaves duplicates
+			final Segment last = this.segments.get(this.segments.size() - 1);
+			last.position = SEGMENT_SIZE;
+			this.entries.clear();
+			this.keys = new LongHashSet(ItemHistory.this.retain);
+
+			for (int idx = kept.size() - 1; idx >= 0; idx--) { // oldest first, as if appended over time
+				final RssItem item = kept.get(idx);
+				final long key = LongHashSet.hash(item.guid != null ? item.guid : item.link);
+				if (this.keys.add(key))
+					this.write(key, item);
+			}
+
+			for (final Segment segment : this.segments)
+				if (!previous.contains(segment))
+					segment.buffer.force();
+
+			for (final Segment segment : previous) {
+				this.segments.remove(segment);
+				segment.close();
+				Files.deleteIfExists(segment.file);
+			}
+
+			this.isViewValid = Boolean.FALSE;
+			log.info("Compacted history in {}, {} items dropped", this.dir, dropped);
+		}
+
+		void close() {
+			for (final Segment segment : this.segments)
+				segment.close();
+			this.segments.clear();
+			this.entries.clear();
+			this.keys = null;
+			this.isViewValid = Boolean.FALSE;
+		}
+	}
+
+	private static final class Segment {
+		final int number;
+		final Path file;
+		final MappedByteBuffer buffer;
+		int position;
+
+		Segment(final int number, final Path file) throws IOException {
+			this.number = number;
+			this.file = file;
+			// the mapping stays valid once the channel is closed, no file descriptor is held per segment
+			try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, SEGMENT_SIZE);
+			}
+		}
+
+		void close() {
+			try {
+				this.buffer.force(); // the mapping itself is released by the garbage collector
+			} catch (final UncheckedIOException e) {
+				log.debug("Could not flush {}: {}", this.file, e.toString());
+			}
+		}
+	}
+
+	private static final class Entry {
+		final long published;
+		final Segment segment;
+		final int position;
+
+		Entry(final long published, final Segment segment, final int position) {
+			this.published = published;
+			this.segment = segment;
+			this.position = position;
+		}
+
+		RssItem read() {
+			final ByteBuffer buffer = this.segment.buffer.duplicate();
+			final int length = buffer.getInt(this.position);
+			((Buffer) buffer).limit(this.position + RECORD_HEADER + length).position(this.position + RECORD_HEADER + 16);
+
+			final RssItem item = new RssItem();
+			item.guid = readString(buffer);
+			item.title = readString(buffer);
+			item.category = readString(buffer);
+			item.link = readString(buffer);
+			item.description = readString(buffer);
+			item.pubDate = readString(buffer);
+			if (buffer.remaining() >= 4) { // optional
+				final int fragment = buffer.getInt();
+				item.fragment = new byte[fragment];
+				buffer.get(item.fragment);
+			}
+			return item;
+		}
+	}
+
+	/**
+	 * Body of a record: key, publication date and the item's strings (length prefixed UTF-8, -1 for null),
+	 * followed by the length prefixed fragment if the item has one.
+	 */
+	private static byte[] encode(final long key, final long published, final RssItem item) {
+		final Collection<byte[]> strings = new ArrayList<>(6);
+		int length = 16;
+		for (final String value : new String[] { item.guid, item.title, item.category, item.link, item.description, item.pubDate }) {
+			final byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+			strings.add(bytes);
+			length += 4 + (bytes == null ? 0 : bytes.length);
+		}
+
+		if (item.fragment != null)
+			length += 4 + item.fragment.length;
+
+		final ByteBuffer body = ByteBuffer.allocate(length);
+		body.putLong(key).putLong(published);
+		for (final byte[] bytes : strings) {
+			if (bytes == null) {
+				body.putInt(-1);
+			} else {
+				body.putInt(bytes.length);
+				body.put(bytes);
+			}
+		}
+		if (item.fragment != null)
+			body.putInt(item.fragment.length).put(item.fragment);
+		return body.array();
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0)
+			return null;
+
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -1,6 +1,10 @@
 package com.wilke.storage;
 
 import com.wilke.feed.FeedAggregate;
+import com.wilke.metrics.Counter;
+import com.wilke.metrics.FlightEvents;
+import com.wilke.metrics.Histogram;
+import com.wilke.metrics.Metrics;
 import com.wilke.util.Alarm2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,76 +13,122 @@ import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonException;
 import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
 import javax.json.stream.JsonGenerator;
-import javax.json.stream.JsonParsingException;
-import java.io.Closeable;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Reader;
-import java.io.StringReader;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
-public final class JsonStore implements Closeable {
+/**
+ * Feed aggregates configured by json files in a directory tree, kept up to date by watching the tree.
+ * <p>
+ * Each json file is fingerprinted (modification time, size, hash of its content). Rescans only look at the files
+ * reported by the file watcher and only parse those whose content actually changed, swapping the resulting
+ * aggregates into the store. The whole tree is walked on the first scan and whenever watch events were lost.
+ */
+public final class JsonStore implements AggregateStore {
 
 	private static final Logger log = LoggerFactory.getLogger(JsonStore.class);
 
+	private static final Histogram scanSeconds = Metrics.registry().histogram("catnapper_store_scan_seconds",
+			"Time rescanning the json files of feed aggregates");
+	private static final Counter fileFailures = Metrics.registry().counter("catnapper_store_file_failures_total",
+			"Json files that could not be parsed");
+	private static final Counter filesParsed = Metrics.registry().counter("catnapper_store_files_parsed_total",
+			"Json files parsed, unchanged files are skipped");
+
+	private static final PathMatcher jsonFiles = FileSystems.getDefault().getPathMatcher("glob:**.json");
+
 	private final Path path;
 
-	private final Alarm2 alarm = new Alarm2(() -> JsonStore.this.scheduleFileScanNow(), 10);
+	private final Alarm2 alarm = new Alarm2(() -> JsonStore.this.rescan(), 10);
 
     // maps feed identifier to feed aggregate
     private volatile Map<String, FeedAggregate> store = new HashMap<>();
 
+	// guarded by this, maps json file to its fingerprint
+	private final Map<Path, Fingerprint> files = new HashMap<>();
+
+	// files and directories reported by the file watcher since the last rescan
+	private final Set<Path> changed = ConcurrentHashMap.newKeySet();
+	private volatile boolean isFullScan = Boolean.TRUE;
+
+	private final List<Consumer<Collection<FeedAggregate>>> reloadListeners = new CopyOnWriteArrayList<>();
+	private final List<Consumer<FeedAggregate>> saveListeners = new CopyOnWriteArrayList<>();
+
 	private final Thread fileWatcher = new Thread() {
 		@Override
 		public void run() {
 			try (WatchService service = FileSystems.getDefault().newWatchService()) {
-				JsonStore.this.path.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
-				WatchKey key;
-				do {
+				JsonStore.this.register(service, JsonStore.this.path);
+				while (true) {
+					final WatchKey key;
 					try {
 						key = service.take();
-						if (!key.pollEvents().isEmpty())
-							JsonStore.this.scheduleFileScan();
 					} catch (final InterruptedException e) {
 						log.debug("FileWatcher has been interrupted, shutting down.");
 						return; // expected on close() call
 					}
-				} while (key.reset());
+
+					final Path directory = (Path) key.watchable();
+					final List<WatchEvent<?>> events = key.pollEvents();
+					for (final WatchEvent<?> event : events)
+						JsonStore.this.changed(service, directory, event);
+					if (!events.isEmpty())
+						JsonStore.this.scheduleFileScan();
+
+					if (!key.reset() && directory.equals(JsonStore.this.path))
+						return; // directory of the store is gone
+				}
 			} catch (final IOException e) {
 				log.error(e.toString());
 			}
 		}
 	};
 
-	private final class JsonFormat {
-		public static final String IDENTIFIER = "identifier";
-		public static final String TITLE = "title";
-		public static final String DESCRIPTION = "description";
-		public static final String URLS = "urls";
+	private static final class Fingerprint {
+		final long modified;
+		final long size;
+		final long hash;
+		final FeedAggregate aggregate; // null if the file could not be parsed
+
+		Fingerprint(final long modified, final long size, final long hash, final FeedAggregate aggregate) {
+			this.modified = modified;
+			this.size = size;
+			this.hash = hash;
+			this.aggregate = aggregate;
+		}
 	}
 
 	public JsonStore(final String path) throws InvalidPathException {
@@ -97,38 +147,220 @@ public final class JsonStore implements Closeable {
 		this.alarm.stop();
 	}
 
+	@Override
 	public FeedAggregate getAggregate(final String identifier) {
         return this.store.get(identifier);
 	}
 
+	/**
+	 * @return unmodifiable snapshot of all feed aggregates
+	 */
+	@Override
+	public Collection<FeedAggregate> getAggregates() {
+		return Collections.unmodifiableCollection(this.store.values());
+	}
+
+	@Override
+	public int size() {
+		return this.store.size();
+	}
+
+	/**
+	 * Registers a listener being notified with all feed aggregates after each (re)load changing the store.
+	 */
+	@Override
+	public void addReloadListener(final Consumer<Collection<FeedAggregate>> listener) {
+		this.reloadListeners.add(listener);
+	}
+
+	@Override
+	public void addSaveListener(final Consumer<FeedAggregate> listener) {
+		this.saveListeners.add(listener);
+	}
+
 	public void scheduleFileScan() {
 		this.alarm.reset();
 	}
 
-	public void scheduleFileScanNow() {
-		final List<Path> files = this.collectFiles();
-        final Map<String, FeedAggregate> feeds = new HashMap<>();
+	/**
+	 * Walks the whole directory tree now, parsing only the json files changed since the last scan.
+	 */
+	public synchronized void scheduleFileScanNow() {
+		this.isFullScan = Boolean.FALSE;
+		this.changed.clear();
+
+		final List<Path> found = this.collectFiles(this.path);
+		final Set<Path> gone = new HashSet<>(this.files.keySet());
+		gone.removeAll(found);
+		this.update(found, gone);
+	}
+
+	/**
+	 * Looks only at the files and directories reported by the file watcher, unless events were lost.
+	 */
+	private synchronized void rescan() {
+		if (this.isFullScan) {
+			this.scheduleFileScanNow();
+			return;
+		}
+
+		final List<Path> found = new ArrayList<>();
+		final Set<Path> gone = new HashSet<>();
+		for (final Iterator<Path> iterator = this.changed.iterator(); iterator.hasNext();) {
+			final Path changed = iterator.next();
+			iterator.remove();
+
+			if (Files.isDirectory(changed))
+				found.addAll(this.collectFiles(changed)); // created or moved in
+			else if (Files.isRegularFile(changed)) {
+				if (jsonFiles.matches(changed))
+					found.add(changed);
+			} else
+				for (final Path file : this.files.keySet())
+					if (file.startsWith(changed)) // deleted file or directory
+						gone.add(file);
+		}
+
+		if (!found.isEmpty() || !gone.isEmpty())
+			this.update(found, gone);
+	}
+
+	/**
+	 * Called by the file watcher only.
+	 */
+	private void changed(final WatchService service, final Path directory, final WatchEvent<?> event) {
+		if (event.kind() == OVERFLOW) {
+			this.isFullScan = Boolean.TRUE;
+			return;
+		}
+
+		final Path changed = directory.resolve((Path) event.context());
+		if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed))
+			try {
+				this.register(service, changed);
+			} catch (final IOException e) {
+				log.warn("Could not watch directory: {}", e.toString());
+				this.isFullScan = Boolean.TRUE;
+			}
+		this.changed.add(changed);
+	}
+
+	private void register(final WatchService service, final Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+				dir.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
 
-		for (final Path file : files)
+	/**
+	 * Fingerprints the found files, parses the changed ones and swaps the resulting aggregates into the store.
+	 */
+	private void update(final Collection<Path> found, final Collection<Path> gone) {
+		final FlightEvents.StoreScan event = FlightEvents.get().beginStoreScan();
+		final long start = System.nanoTime();
+		final List<FeedAggregate> removed = new ArrayList<>();
+		final List<FeedAggregate> added = new ArrayList<>();
+		int failures = 0;
+
+		for (final Path file : gone) {
+			final Fingerprint old = this.files.remove(file);
+			if (old != null && old.aggregate != null)
+				removed.add(old.aggregate);
+		}
+
+		for (final Path file : found) {
+			final Fingerprint old = this.files.get(file);
+			Fingerprint fingerprint;
 			try {
-                final FeedAggregate aggregate = this.parseFile(file);
-                feeds.put(aggregate.identifier, aggregate);
-			} catch (final JsonException e) {
-				log.warn("Could not parse json file: {}", e.toString()); // log and continue
+				final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+				final long modified = attrs.lastModifiedTime().toMillis();
+				if (old != null && old.modified == modified && old.size == attrs.size())
+					continue; // unchanged
+
+				final byte[] content = Files.readAllBytes(file);
+				final long hash = hash(content);
+				if (old != null && old.hash == hash) {
+					this.files.put(file, new Fingerprint(modified, attrs.size(), hash, old.aggregate));
+					continue; // touched only
+				}
+
+				filesParsed.increment();
+				FeedAggregate aggregate = null;
+				try {
+					aggregate = AggregateJson.read(new ByteArrayInputStream(content), file.toAbsolutePath().toString());
+					added.add(aggregate);
+				} catch (final JsonException e) {
+					fileFailures.increment();
+					failures++;
+					log.warn("Could not parse json file: {}", e.toString()); // log and continue
+				}
+				fingerprint = new Fingerprint(modified, attrs.size(), hash, aggregate);
+			} catch (final NoSuchFileException e) {
+				fingerprint = null; // deleted meanwhile
+			} catch (final IOException e) {
+				fileFailures.increment();
+				failures++;
+				log.warn("Could not read json file: {}", e.toString()); // log and continue
+				fingerprint = null;
 			}
 
-        this.store = feeds;
+			if (fingerprint == null)
+				this.files.remove(file);
+			else
+				this.files.put(file, fingerprint);
+			if (old != null && old.aggregate != null)
+				removed.add(old.aggregate);
+		}
+
+		final boolean isChanged = !removed.isEmpty() || !added.isEmpty();
+		if (isChanged) {
+			final Map<String, FeedAggregate> feeds = new HashMap<>(this.store);
+			for (final FeedAggregate aggregate : removed)
+				feeds.remove(aggregate.identifier, aggregate);
+			for (final FeedAggregate aggregate : added)
+				feeds.put(aggregate.identifier, aggregate);
+			for (final FeedAggregate aggregate : removed)
+				if (!feeds.containsKey(aggregate.identifier))
+					this.restore(feeds, aggregate.identifier);
+
+			this.store = feeds;
+		}
+
+		scanSeconds.observeSince(start);
+		if (event != null)
+			event.record(found.size() + gone.size(), this.store.size(), failures);
+
+		if (isChanged)
+			for (final Consumer<Collection<FeedAggregate>> listener : this.reloadListeners)
+				try {
+					listener.accept(this.getAggregates());
+				} catch (final RuntimeException e) {
+					log.warn("Reload listener failed: {}", e.toString()); // log and continue
+				}
+	}
+
+	/**
+	 * Puts back an aggregate still configured by another file with the same identifier, if any.
+	 */
+	private void restore(final Map<String, FeedAggregate> feeds, final String identifier) {
+		for (final Fingerprint fingerprint : this.files.values())
+			if (fingerprint.aggregate != null && fingerprint.aggregate.identifier.equals(identifier)) {
+				feeds.put(identifier, fingerprint.aggregate);
+				return;
+			}
 	}
 
-	private List<Path> collectFiles() {
+	private List<Path> collectFiles(final Path directory) {
 		final List<Path> files = new ArrayList<>();
-		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:**.json");
 
 		try {
-			Files.walkFileTree(this.path, new SimpleFileVisitor<Path>() {
+			Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
 				@Override
 				public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
-					if (matcher.matches(file))
+					if (attrs.isRegularFile() && jsonFiles.matches(file))
 						files.add(file);
 
 					return FileVisitResult.CONTINUE;
@@ -141,30 +373,16 @@ public final class JsonStore implements Closeable {
 		return files;
 	}
 
-	private FeedAggregate parseFile(final Path path) throws JsonException {
-		try (InputStream in = new FileInputStream(path.toFile())) {
-			final JsonObject json = Json.createReader(in).readObject();
-			if (json.isEmpty())
-				throw new JsonException("JSON file is empty");
-
-			final String identifier = json.getString(JsonFormat.IDENTIFIER, null);
-			if (identifier == null || identifier.isEmpty())
-				throw new JsonException("JSON feed item does not have an identifier [" + json + "]");
-
-			final FeedAggregate feed = new FeedAggregate(identifier);
-			feed.title = json.getString(JsonFormat.TITLE);
-			feed.description = json.getString(JsonFormat.DESCRIPTION);
-			feed.fileName = path.toAbsolutePath().toString();
-			feed.fileContent = json.getJsonArray(JsonFormat.URLS).toString();
-
-			final JsonArray urls = json.getJsonArray(JsonFormat.URLS);
-			for (int idx = 0; idx < urls.size(); idx++)
-				feed.urls.add(urls.getString(idx));
-
-			return feed;
-		} catch (NullPointerException | ClassCastException | JsonParsingException | IOException e) {
-			throw new JsonException(e.getMessage(), e);
+	/**
+	 * 64-bit FNV-1a hash of the given bytes.
+	 */
+	private static long hash(final byte[] content) {
+		long hash = 0xcbf29ce484222325L;
+		for (final byte b : content) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
 		}
+		return hash;
 	}
 
 	private static final Map<String, Boolean> jsonConfig = new HashMap<>();
@@ -172,36 +390,35 @@ public final class JsonStore implements Closeable {
 		jsonConfig.put(JsonGenerator.PRETTY_PRINTING, Boolean.TRUE);
 	}
 
-	@Deprecated
-	public String writeFile(final FeedAggregate aggregate, String newUrls) {
-		JsonArray urls;
-
-		// user input validation, quick and dirty
+	/**
+	 * Rewrites the json file of the given aggregate, picked up by the file watcher.
+	 */
+	@Override
+	public String setAggregate(final FeedAggregate aggregate, String newUrls) {
 		if (newUrls == null || newUrls.isEmpty())
 			newUrls = "[]"; // empty JSON array
-		try (Reader reader = new StringReader(newUrls)) {
-			urls = Json.createReader(reader).readArray();
-			for (int idx = 0; idx < urls.size(); idx++)
-				new URL(urls.getString(idx));
-		} catch (JsonException | IOException e) {
-			log.debug("User input validation error: {}", e.toString());
+		final JsonArray urls = AggregateJson.urls(newUrls);
+		if (urls == null)
 			return newUrls; // user input syntax errors, abort
-		}
 
+		final JsonObject json = AggregateJson.write(aggregate, urls);
 		synchronized (aggregate.identifier) {
 			try (OutputStream output = new FileOutputStream(aggregate.fileName, Boolean.FALSE)) {
-				final JsonObjectBuilder feed = Json.createObjectBuilder();
-				feed.add(JsonFormat.IDENTIFIER, aggregate.identifier);
-				feed.add(JsonFormat.TITLE, aggregate.title);
-				feed.add(JsonFormat.DESCRIPTION, aggregate.description);
-				feed.add(JsonFormat.URLS, urls);
-
-				Json.createWriterFactory(jsonConfig).createWriter(output).writeObject(feed.build());
+				Json.createWriterFactory(jsonConfig).createWriter(output).writeObject(json);
 			} catch (final IOException e) {
 				log.warn("Could not save json file: {}", e.toString());
+				return newUrls;
 			}
 		}
 
+		// the rescan following the file change swaps the aggregate into the store
+		final FeedAggregate saved = AggregateJson.read(new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)), aggregate.fileName);
+		for (final Consumer<FeedAggregate> listener : this.saveListeners)
+			try {
+				listener.accept(saved);
+			} catch (final RuntimeException e) {
+				log.warn("Save listener failed: {}", e.toString()); // log and continue
+			}
 		return newUrls;
 	}
 }
@@ -0,0 +1,345 @@
+package com.wilke.storage;
+
+import com.wilke.feed.FeedAggregate;
+import com.wilke.metrics.Counter;
+import com.wilke.metrics.Metrics;
+import com.wilke.util.Alarm2;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.time.Instant;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Feed aggregates kept in a single file by the embedded H2 MVStore, keyed by identifier and stored in their json
+ * format.
+ * <p>
+ * Aggregates are loaded lazily on first access and kept in a bounded in-memory cache, once exceeded the least
+ * recently used ones are evicted down to three quarters of its capacity. Neither opening the store nor its heap
+ * use grow with the number of aggregates. The json files of a {@link JsonStore} directory are migrated once, when
+ * the store is opened first.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class MvStore implements AggregateStore {
+
+	private static final Logger log = LoggerFactory.getLogger(MvStore.class);
+
+	private static final Counter loads = Metrics.registry().counter("catnapper_store_loads_total",
+			"Feed aggregates loaded from the embedded store");
+
+	private static final String AGGREGATES = "aggregates";
+	private static final String META = "meta";
+	private static final String MIGRATED = "migrated";
+
+	private final MVStore mvStore;
+
+	// maps feed identifier to feed aggregate in json
+	private final MVMap<String, byte[]> aggregates;
+
+	private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+	private final AtomicLong clock = new AtomicLong(); // logical time of accesses
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private final int cacheSize;
+
+	private final List<Consumer<Collection<FeedAggregate>>> reloadListeners = new CopyOnWriteArrayList<>();
+	private final List<Consumer<FeedAggregate>> saveListeners = new CopyOnWriteArrayList<>();
+
+	// notifies the reload listeners, deferred so startup does not wait for all aggregates being iterated
+	private final Alarm2 alarm = new Alarm2(() -> MvStore.this.notifyListeners(), 1);
+
+	private final Collection<FeedAggregate> view = new AbstractCollection<FeedAggregate>() {
+		@Override
+		public Iterator<FeedAggregate> iterator() {
+			return new AggregateIterator(MvStore.this.aggregates.cursor(null));
+		}
+
+		@Override
+		public int size() {
+			return MvStore.this.size();
+		}
+	};
+
+	private static final class Cached {
+		final FeedAggregate aggregate;
+		volatile long lastAccess;
+
+		Cached(final FeedAggregate aggregate, final long lastAccess) {
+			this.aggregate = aggregate;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * @param file of the store, created if missing
+	 * @param cacheSize maximum number of aggregates kept in memory
+	 * @param pathToFeeds directory of json files to migrate once, null to skip the migration
+	 * @exception IllegalArgumentException if cacheSize < 1
+	 * @exception IOException if the store could not be opened, e.g. locked by another process
+	 */
+	public MvStore(final Path file, final int cacheSize, final Path pathToFeeds) throws IOException {
+		if (cacheSize < 1)
+			throw new IllegalArgumentException();
+
+		this.cacheSize = cacheSize;
+		try {
+			if (file.getParent() != null)
+				Files.createDirectories(file.getParent());
+			this.mvStore = new MVStore.Builder().fileName(file.toString()).compress().open();
+			this.aggregates = this.mvStore.openMap(AGGREGATES);
+		} catch (final RuntimeException e) { // MVStoreException
+			throw new IOException("Could not open store '" + file + "': " + e.getMessage(), e);
+		}
+
+		final MVMap<String, String> meta = this.mvStore.openMap(META);
+		if (pathToFeeds != null && !meta.containsKey(MIGRATED)) {
+			log.info("Migrating json files from '{}' into '{}', once", pathToFeeds, file);
+			this.migrate(pathToFeeds);
+			meta.put(MIGRATED, pathToFeeds.toAbsolutePath() + " " + Instant.now());
+			this.mvStore.commit();
+		} else if (pathToFeeds != null) {
+			log.info("Json files already migrated: {}", meta.get(MIGRATED));
+		}
+	}
+
+	@Override
+	public void close() {
+		this.alarm.stop();
+		this.mvStore.close();
+	}
+
+	@Override
+	public FeedAggregate getAggregate(final String identifier) {
+		if (identifier == null)
+			return null;
+
+		final Cached cached = this.cache.get(identifier);
+		if (cached != null) {
+			this.hits.increment();
+			cached.lastAccess = this.clock.incrementAndGet();
+			return cached.aggregate;
+		}
+
+		this.misses.increment();
+		final byte[] json = this.aggregates.get(identifier);
+		if (json == null)
+			return null;
+
+		final FeedAggregate aggregate = load(identifier, json);
+		if (aggregate == null)
+			return null;
+
+		final Cached entry = new Cached(aggregate, this.clock.incrementAndGet());
+		final Cached previous = this.cache.putIfAbsent(identifier, entry); // a concurrent save wins
+		if (previous != null)
+			return previous.aggregate;
+
+		if (this.cache.size() > this.cacheSize)
+			this.evict();
+		return aggregate;
+	}
+
+	@Override
+	public String setAggregate(final FeedAggregate aggregate, String newUrls) {
+		if (newUrls == null || newUrls.isEmpty())
+			newUrls = "[]"; // empty JSON array
+		final JsonArray urls = AggregateJson.urls(newUrls);
+		if (urls == null)
+			return newUrls; // user input syntax errors, abort
+
+		final byte[] json = AggregateJson.write(aggregate, urls).toString().getBytes(StandardCharsets.UTF_8);
+		final FeedAggregate saved = load(aggregate.identifier, json);
+		if (saved == null)
+			return newUrls;
+
+		synchronized (aggregate.identifier) {
+			this.aggregates.put(aggregate.identifier, json);
+			this.mvStore.commit();
+			this.cache.put(aggregate.identifier, new Cached(saved, this.clock.incrementAndGet()));
+		}
+
+		for (final Consumer<FeedAggregate> listener : this.saveListeners)
+			try {
+				listener.accept(saved);
+			} catch (final RuntimeException e) {
+				log.warn("Save listener failed: {}", e.toString()); // log and continue
+			}
+		return newUrls;
+	}
+
+	/**
+	 * @return unmodifiable view of all feed aggregates, loading those not cached while iterating without caching them
+	 */
+	@Override
+	public Collection<FeedAggregate> getAggregates() {
+		return this.view;
+	}
+
+	@Override
+	public int size() {
+		return this.aggregates.size();
+	}
+
+	/**
+	 * Registers a listener being notified with all feed aggregates shortly after. Saves are only told to the
+	 * {@link #addSaveListener(Consumer) save listeners}, walking (and parsing) all aggregates again is left out.
+	 */
+	@Override
+	public void addReloadListener(final Consumer<Collection<FeedAggregate>> listener) {
+		this.reloadListeners.add(listener);
+		this.alarm.reset();
+	}
+
+	@Override
+	public void addSaveListener(final Consumer<FeedAggregate> listener) {
+		this.saveListeners.add(listener);
+	}
+
+	public long hitCount() {
+		return this.hits.sum();
+	}
+
+	public long missCount() {
+		return this.misses.sum();
+	}
+
+	public int cacheSize() {
+		return this.cache.size();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MvStore[size=%d, cached=%d, hits=%d, misses=%d]",
+				this.size(), this.cacheSize(), this.hitCount(), this.missCount());
+	}
+
+	private void notifyListeners() {
+		for (final Consumer<Collection<FeedAggregate>> listener : this.reloadListeners)
+			try {
+				listener.accept(this.view);
+			} catch (final RuntimeException e) {
+				log.warn("Reload listener failed: {}", e.toString()); // log and continue
+			}
+	}
+
+	/**
+	 * Evicts the least recently used aggregates in one go, a single thread at a time.
+	 */
+	private void evict() {
+		if (!this.evicting.compareAndSet(Boolean.FALSE, Boolean.TRUE))
+			return;
+
+		try {
+			final List<Map.Entry<String, Cached>> candidates = new ArrayList<>(this.cache.entrySet());
+			candidates.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+
+			final int target = this.cacheSize - this.cacheSize / 4;
+			for (int idx = 0; idx < candidates.size() && this.cache.size() > target; idx++)
+				this.cache.remove(candidates.get(idx).getKey(), candidates.get(idx).getValue());
+		} finally {
+			this.evicting.set(Boolean.FALSE);
+		}
+	}
+
+	/**
+	 * Copies the json files of the given directory into the store, as they are.
+	 */
+	private void migrate(final Path pathToFeeds) throws IOException {
+		if (!Files.isDirectory(pathToFeeds))
+			return;
+
+		final PathMatcher jsonFiles = FileSystems.getDefault().getPathMatcher("glob:**.json");
+		final List<Path> files;
+		try (Stream<Path> walk = Files.walk(pathToFeeds)) {
+			files = walk.filter(file -> Files.isRegularFile(file) && jsonFiles.matches(file)).collect(Collectors.toList());
+		}
+
+		int migrated = 0;
+		for (final Path file : files)
+			try {
+				final byte[] json = Files.readAllBytes(file);
+				final FeedAggregate aggregate = AggregateJson.read(new ByteArrayInputStream(json), null);
+				this.aggregates.put(aggregate.identifier, json);
+				migrated++;
+			} catch (final JsonException | IOException e) {
+				log.warn("Could not migrate json file '{}': {}", file, e.toString()); // log and continue
+			}
+
+		log.info("Migrated {} of {} json files from '{}'", migrated, files.size(), pathToFeeds);
+	}
+
+	/**
+	 * @return null if the json could not be parsed
+	 */
+	private static FeedAggregate load(final String identifier, final byte[] json) {
+		loads.increment();
+		try {
+			return AggregateJson.read(new ByteArrayInputStream(json), null);
+		} catch (final JsonException e) {
+			log.warn("Could not parse user feed '{}': {}", identifier, e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Loads the aggregates not cached, skipping those failing to parse.
+	 */
+	private final class AggregateIterator implements Iterator<FeedAggregate> {
+		private final Cursor<String, byte[]> cursor;
+		private FeedAggregate next;
+
+		AggregateIterator(final Cursor<String, byte[]> cursor) {
+			this.cursor = cursor;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (this.next == null && this.cursor.hasNext()) {
+				final String identifier = this.cursor.next();
+				final Cached cached = MvStore.this.cache.get(identifier);
+				this.next = cached != null ? cached.aggregate : load(identifier, this.cursor.getValue());
+			}
+			return this.next != null;
+		}
+
+		@Override
+		public FeedAggregate next() {
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+
+			final FeedAggregate aggregate = this.next;
+			this.next = null;
+			return aggregate;
+		}
+	}
+}
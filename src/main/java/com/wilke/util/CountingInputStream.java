@@ -0,0 +1,50 @@
+package com.wilke.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from (or skipped on) the underlying stream.
+ * An instance is not thread-safe.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private long count;
+
+	public CountingInputStream(final InputStream in) {
+		super(in);
+	}
+
+	public long getCount() {
+		return this.count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int result = super.read();
+		if (result != -1)
+			this.count++;
+		return result;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		final int result = super.read(b, off, len);
+		if (result != -1)
+			this.count += result;
+		return result;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		final long result = super.skip(n);
+		this.count += result;
+		return result;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return Boolean.FALSE;
+	}
+}
@@ -0,0 +1,98 @@
+package com.wilke.util;
+
+/**
+ * Set of primitive longs based on open addressing (linear probing), free of boxing and entry objects.
+ * An instance is not thread-safe.
+ */
+public class LongHashSet {
+
+	private static final long EMPTY = 0L;
+
+	private long[] slots;
+	private boolean containsEmpty; // the value used to mark free slots is kept aside
+	private int size;
+
+	/**
+	 * @param expectedSize number of values expected, the set grows beyond if necessary
+	 */
+	public LongHashSet(final int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		this.slots = new long[capacity];
+	}
+
+	/**
+	 * @return false if the value is already present
+	 */
+	public boolean add(final long value) {
+		if (value == EMPTY) {
+			if (this.containsEmpty)
+				return Boolean.FALSE;
+			this.containsEmpty = Boolean.TRUE;
+			this.size++;
+			return Boolean.TRUE;
+		}
+
+		final int mask = this.slots.length - 1;
+		for (int idx = mix(value) & mask; ; idx = (idx + 1) & mask) {
+			if (this.slots[idx] == value)
+				return Boolean.FALSE;
+			if (this.slots[idx] == EMPTY) {
+				this.slots[idx] = value;
+				if (++this.size * 2 > this.slots.length)
+					this.grow();
+				return Boolean.TRUE;
+			}
+		}
+	}
+
+	public boolean contains(final long value) {
+		if (value == EMPTY)
+			return this.containsEmpty;
+
+		final int mask = this.slots.length - 1;
+		for (int idx = mix(value) & mask; ; idx = (idx + 1) & mask) {
+			if (this.slots[idx] == value)
+				return Boolean.TRUE;
+			if (this.slots[idx] == EMPTY)
+				return Boolean.FALSE;
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	private void grow() {
+		final long[] previous = this.slots;
+		this.slots = new long[previous.length * 2];
+
+		final int mask = this.slots.length - 1;
+		for (final long value : previous)
+			if (value != EMPTY) {
+				int idx = mix(value) & mask;
+				while (this.slots[idx] != EMPTY)
+					idx = (idx + 1) & mask;
+				this.slots[idx] = value;
+			}
+	}
+
+	static int mix(final long value) {
+		final long hash = value * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the given characters, collisions are unlikely enough to treat equal hashes as equal strings.
+	 */
+	public static long hash(final CharSequence value) {
+		long hash = 0xCBF29CE484222325L;
+		for (int idx = 0; idx < value.length(); idx++) {
+			final char c = value.charAt(idx);
+			hash = (hash ^ (c & 0xFF)) * 0x100000001B3L;
+			hash = (hash ^ (c >>> 8)) * 0x100000001B3L;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,94 @@
+package com.wilke.http;
+
+import com.wilke.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Upstream client based on {@link HttpClient} (Java 11+).
+ * <p>
+ * Prefers HTTP/2 for HTTPS, which multiplexes all requests to a host over a single connection, and falls back to
+ * pooled keep-alive HTTP/1.1 connections otherwise. The request timeout only bounds the wait for the response headers,
+ * reading the body is bound by a watchdog.
+ */
+public final class HttpClientUpstreamClient extends AbstractUpstreamClient {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool(DaemonThreadFactory.INSTANCE);
+	private final ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1, DaemonThreadFactory.INSTANCE);
+	private final HttpClient client;
+
+	public HttpClientUpstreamClient(final int connectTimeout, final int readTimeout, final int maxConnectionsPerHost) {
+		super(connectTimeout, readTimeout, maxConnectionsPerHost);
+
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NEVER) // redirects are handled by the caller
+				.connectTimeout(Duration.ofMillis(connectTimeout))
+				.executor(this.executor)
+				.build();
+		this.watchdog.setRemoveOnCancelPolicy(Boolean.TRUE);
+	}
+
+	@Override
+	protected Exchange exchange(final URL url, final Map<String, String> headers, final int connectTimeout, final int readTimeout) throws IOException {
+		final HttpRequest.Builder builder;
+		try {
+			builder = HttpRequest.newBuilder(url.toURI())
+					.GET()
+					.timeout(Duration.ofMillis(connectTimeout + readTimeout)); // connecting is bound by the client's timeout
+		} catch (final URISyntaxException e) {
+			throw new IOException(e);
+		}
+		headers.forEach(builder::header);
+		if ("http".equals(url.getProtocol()))
+			builder.version(HttpClient.Version.HTTP_1_1); // no cleartext upgrade attempts, HTTP/2 is negotiated via TLS only
+
+		final HttpResponse<InputStream> response;
+		try {
+			response = this.client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", e);
+		}
+		final InputStream body = new ReadTimeoutInputStream(response.body(), this.watchdog, readTimeout);
+
+		return new Exchange() {
+			@Override
+			public int status() {
+				return response.statusCode();
+			}
+
+			@Override
+			public String header(final String name) {
+				return response.headers().firstValue(name).orElse(null);
+			}
+
+			@Override
+			public InputStream body() {
+				return body;
+			}
+
+			@Override
+			public void close() throws IOException {
+				body.close(); // returns the connection to the pool
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		this.executor.shutdown();
+		this.watchdog.shutdown();
+	}
+}
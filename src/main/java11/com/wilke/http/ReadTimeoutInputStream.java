@@ -0,0 +1,122 @@
+package com.wilke.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body stream bounding the time a single read may wait for data, which {@link java.net.http.HttpClient} does not.
+ * <p>
+ * A watchdog looks at the read in progress a few times per timeout and closes the underlying stream once it waited
+ * too long, the blocked read then fails with a {@link SocketTimeoutException} instead of hanging forever.
+ */
+final class ReadTimeoutInputStream extends FilterInputStream {
+
+	private static final long NONE = Long.MIN_VALUE;
+
+	private final long timeout; // nanoseconds
+	private final ScheduledFuture<?> watchdog;
+
+	private volatile long readSince = NONE; // start of the read in progress
+	private volatile boolean isTimedOut;
+
+	/**
+	 * @param readTimeout in milliseconds
+	 * @exception IllegalArgumentException if readTimeout < 1
+	 */
+	ReadTimeoutInputStream(final InputStream in, final ScheduledExecutorService scheduler, final int readTimeout) {
+		super(in);
+		if (readTimeout < 1)
+			throw new IllegalArgumentException();
+
+		this.timeout = TimeUnit.MILLISECONDS.toNanos(readTimeout);
+		final long period = Math.max(1L, readTimeout / 4);
+		this.watchdog = scheduler.scheduleAtFixedRate(this::check, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public int read() throws IOException {
+		this.readSince = System.nanoTime();
+		try {
+			final int result = super.read();
+			this.failIfTimedOut();
+			return result;
+		} catch (final IOException e) {
+			throw this.translated(e);
+		} finally {
+			this.readSince = NONE;
+		}
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		this.readSince = System.nanoTime();
+		try {
+			final int result = super.read(b, off, len);
+			this.failIfTimedOut();
+			return result;
+		} catch (final IOException e) {
+			throw this.translated(e);
+		} finally {
+			this.readSince = NONE;
+		}
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		this.readSince = System.nanoTime();
+		try {
+			final long result = super.skip(n);
+			this.failIfTimedOut();
+			return result;
+		} catch (final IOException e) {
+			throw this.translated(e);
+		} finally {
+			this.readSince = NONE;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.watchdog.cancel(Boolean.FALSE);
+		super.close();
+	}
+
+	/**
+	 * Closes the underlying stream if the read in progress waits for too long, run by the scheduler.
+	 */
+	private void check() {
+		final long since = this.readSince;
+		if (since == NONE || System.nanoTime() - since < this.timeout)
+			return;
+
+		this.isTimedOut = Boolean.TRUE;
+		this.watchdog.cancel(Boolean.FALSE);
+		try {
+			this.in.close(); // wakes up the blocked read, with end of stream or an exception
+		} catch (final IOException e) {
+			// nothing to do, the read fails anyway
+		}
+	}
+
+	/**
+	 * Fails a read cut short by the watchdog, which may have seen the end of the stream.
+	 */
+	private void failIfTimedOut() throws SocketTimeoutException {
+		if (this.isTimedOut)
+			throw new SocketTimeoutException("Read timed out");
+	}
+
+	private IOException translated(final IOException e) {
+		if (this.isTimedOut && !(e instanceof SocketTimeoutException)) {
+			final SocketTimeoutException timeout = new SocketTimeoutException("Read timed out");
+			timeout.initCause(e);
+			return timeout;
+		}
+		return e;
+	}
+}
@@ -0,0 +1,188 @@
+package com.wilke.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * {@link FlightEvents} based on {@code jdk.jfr} (Java 11+).
+ * <p>
+ * Events are named {@code com.wilke.*} and enabled by default, e.g. recorded by
+ * {@code -XX:StartFlightRecording=filename=catnapper.jfr}.
+ */
+public final class JfrFlightEvents extends FlightEvents {
+
+	private static final EventType FETCH = EventType.getEventType(FetchEvent.class);
+	private static final EventType PARSE = EventType.getEventType(ParseEvent.class);
+	private static final EventType AGGREGATION = EventType.getEventType(AggregationEvent.class);
+	private static final EventType STORE_SCAN = EventType.getEventType(StoreScanEvent.class);
+
+	@Override
+	public Fetch beginFetch() {
+		if (!FETCH.isEnabled())
+			return null;
+
+		final FetchEvent event = new FetchEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public Parse beginParse() {
+		if (!PARSE.isEnabled())
+			return null;
+
+		final ParseEvent event = new ParseEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public Aggregation beginAggregation() {
+		if (!AGGREGATION.isEnabled())
+			return null;
+
+		final AggregationEvent event = new AggregationEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public StoreScan beginStoreScan() {
+		if (!STORE_SCAN.isEnabled())
+			return null;
+
+		final StoreScanEvent event = new StoreScanEvent();
+		event.begin();
+		return event;
+	}
+
+	@Name("com.wilke.Fetch")
+	@Label("Upstream Fetch")
+	@Description("A single request of an upstream feed, parsing included")
+	@Category({ "Catnapper", "Upstream" })
+	@StackTrace(false)
+	static final class FetchEvent extends Event implements Fetch {
+		@Label("URL")
+		String url;
+
+		@Label("Host")
+		String host;
+
+		@Label("Status")
+		@Description("Response code, -1 if none was received")
+		int status;
+
+		@Label("Bytes")
+		@Description("Bytes transferred, possibly compressed")
+		@DataAmount
+		long bytes;
+
+		@Override
+		public void record(final String url, final String host, final int status, final long bytes) {
+			this.end();
+			if (!this.shouldCommit())
+				return;
+
+			this.url = url;
+			this.host = host;
+			this.status = status;
+			this.bytes = bytes;
+			this.commit();
+		}
+	}
+
+	@Name("com.wilke.Parse")
+	@Label("Feed Parse")
+	@Description("Parsing of an upstream feed")
+	@Category({ "Catnapper", "Upstream" })
+	@StackTrace(false)
+	static final class ParseEvent extends Event implements Parse {
+		@Label("Items")
+		@Description("Items parsed, -1 if parsing failed")
+		int items;
+
+		@Label("Passthrough")
+		boolean passthrough;
+
+		@Override
+		public void record(final int items, final boolean passthrough) {
+			this.end();
+			if (!this.shouldCommit())
+				return;
+
+			this.items = items;
+			this.passthrough = passthrough;
+			this.commit();
+		}
+	}
+
+	@Name("com.wilke.Aggregation")
+	@Label("Aggregation")
+	@Description("Combination of the upstream feeds of an aggregate, waiting for them included")
+	@Category({ "Catnapper" })
+	@StackTrace(false)
+	static final class AggregationEvent extends Event implements Aggregation {
+		@Label("Identifier")
+		String identifier;
+
+		@Label("Feeds")
+		@Description("Upstream feeds of the aggregate")
+		int feeds;
+
+		@Label("Missing")
+		@Description("Upstream feeds left out")
+		int missing;
+
+		@Label("Partial")
+		boolean partial;
+
+		@Override
+		public void record(final String identifier, final int feeds, final int missing) {
+			this.end();
+			if (!this.shouldCommit())
+				return;
+
+			this.identifier = identifier;
+			this.feeds = feeds;
+			this.missing = missing;
+			this.partial = missing > 0;
+			this.commit();
+		}
+	}
+
+	@Name("com.wilke.StoreScan")
+	@Label("Store Rescan")
+	@Description("Rescan of the json files of the aggregates, only changed files are parsed")
+	@Category({ "Catnapper" })
+	@StackTrace(false)
+	static final class StoreScanEvent extends Event implements StoreScan {
+		@Label("Files")
+		@Description("Files looked at, found or gone")
+		int files;
+
+		@Label("Aggregates")
+		int aggregates;
+
+		@Label("Failures")
+		@Description("Files that could not be parsed")
+		int failures;
+
+		@Override
+		public void record(final int files, final int aggregates, final int failures) {
+			this.end();
+			if (!this.shouldCommit())
+				return;
+
+			this.files = files;
+			this.aggregates = aggregates;
+			this.failures = failures;
+			this.commit();
+		}
+	}
+}
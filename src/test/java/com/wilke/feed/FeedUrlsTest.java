@@ -0,0 +1,81 @@
+package com.wilke.feed;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FeedUrlsTest {
+
+	@Test
+	public void lowerCasesSchemeAndHostOnly() {
+		assertEquals("http://example.org/Feed/RSS", FeedUrls.canonicalize("HTTP://Example.ORG/Feed/RSS"));
+	}
+
+	@Test
+	public void dropsDefaultPortsAndFragments() {
+		assertEquals("http://example.org/rss", FeedUrls.canonicalize("http://example.org:80/rss#top"));
+		assertEquals("https://example.org/rss", FeedUrls.canonicalize("https://example.org:443/rss"));
+		assertEquals("http://example.org:8080/rss", FeedUrls.canonicalize("http://example.org:8080/rss"));
+	}
+
+	@Test
+	public void addsRootPath() {
+		assertEquals("http://example.org/", FeedUrls.canonicalize("http://example.org"));
+	}
+
+	@Test
+	public void trimsWhitespace() {
+		assertEquals("http://example.org/rss", FeedUrls.canonicalize("  http://example.org/rss\n"));
+	}
+
+	@Test
+	public void sortsQueryParameters() {
+		assertEquals("http://example.org/?a=1&a=2&b=x", FeedUrls.canonicalize("http://example.org/?b=x&a=2&a=1"));
+	}
+
+	@Test
+	public void reencodesQueryParametersUniformly() {
+		assertEquals(FeedUrls.canonicalize("http://example.org/?q=a+b"), FeedUrls.canonicalize("http://example.org/?q=a%20b"));
+		assertEquals("http://example.org/?q=%5Bsub%5D", FeedUrls.canonicalize("http://example.org/?q=[sub]"));
+	}
+
+	@Test
+	public void keepsFlagsWithoutValue() {
+		assertEquals("http://example.org/?flag&q=x", FeedUrls.canonicalize("http://example.org/?q=x&flag"));
+		assertEquals("http://example.org/?flag&flag=", FeedUrls.canonicalize("http://example.org/?flag=&flag"));
+	}
+
+	@Test
+	public void skipsEmptyQueryParameters() {
+		assertEquals("http://example.org/?a=1", FeedUrls.canonicalize("http://example.org/?&a=1&"));
+		assertEquals("http://example.org/", FeedUrls.canonicalize("http://example.org/?"));
+	}
+
+	@Test
+	public void keepsUrlsWithMalformedEscapesAsIs() {
+		assertEquals("HTTP://Example.org/?b=%zz&a", FeedUrls.canonicalize("HTTP://Example.org/?b=%zz&a"));
+	}
+
+	@Test
+	public void mapsNyaaAliasesOntoHttps() {
+		final String canonical = "https://nyaa.si/?page=rss&q=x";
+		assertEquals(canonical, FeedUrls.canonicalize("http://www.nyaa.se/?page=rss&q=x"));
+		assertEquals(canonical, FeedUrls.canonicalize("http://nyaa.eu:80/?q=x&page=rss"));
+		assertEquals(canonical, FeedUrls.canonicalize("https://nyaa.si:443/?page=rss&q=x"));
+		assertEquals(canonical, FeedUrls.canonicalize("http://nyaa.si:443/?page=rss&q=x"));
+	}
+
+	@Test
+	public void keepsOtherPortsOfHttpsHosts() {
+		assertEquals("https://nyaa.si:8443/?page=rss", FeedUrls.canonicalize("http://nyaa.si:8443/?page=rss"));
+		assertEquals("https://nyaa.si:8443/?page=rss", FeedUrls.canonicalize("https://www.nyaa.se:8443/?page=rss"));
+		assertEquals("https://nyaa.si:8080/", FeedUrls.canonicalize("http://nyaa.si:8080/"));
+	}
+
+	@Test
+	public void returnsUnparsableUrlsTrimmed() {
+		assertEquals("not a url", FeedUrls.canonicalize(" not a url "));
+		assertEquals("example.org/rss", FeedUrls.canonicalize("example.org/rss"));
+		assertEquals("mailto:someone@example.org", FeedUrls.canonicalize("mailto:someone@example.org"));
+	}
+}
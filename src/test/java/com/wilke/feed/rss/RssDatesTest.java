@@ -0,0 +1,91 @@
+package com.wilke.feed.rss;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class RssDatesTest {
+
+	private static long millis(final String instant) {
+		return Instant.parse(instant).toEpochMilli();
+	}
+
+	@Test
+	public void parsesUsualShape() {
+		assertEquals(millis("2002-09-07T09:42:31Z"), RssDates.parse("Sat, 07 Sep 2002 09:42:31 +0000"));
+		assertEquals(millis("2002-09-07T09:42:31Z"), RssDates.parse("Sat, 07 Sep 2002 09:42:31 GMT"));
+		assertEquals(millis("2002-09-07T09:42:31Z"), RssDates.parse("Sat, 07 Sep 2002 09:42:31 UT"));
+		assertEquals(millis("2002-09-07T09:42:31Z"), RssDates.parse("Sat, 07 Sep 2002 09:42:31 Z"));
+	}
+
+	@Test
+	public void appliesNumericOffsets() {
+		assertEquals(millis("2002-09-07T14:42:31Z"), RssDates.parse("Sat, 07 Sep 2002 09:42:31 -0500"));
+		assertEquals(millis("2002-09-07T04:12:31Z"), RssDates.parse("Sat, 07 Sep 2002 09:42:31 +0530"));
+		assertEquals(millis("2002-09-06T23:42:31Z"), RssDates.parse("Sat, 07 Sep 2002 09:42:31 +1000"));
+	}
+
+	@Test
+	public void appliesNamedZones() {
+		assertEquals(millis("2002-09-07T14:42:31Z"), RssDates.parse("Sat, 07 Sep 2002 09:42:31 EST"));
+		assertEquals(millis("2002-09-07T13:42:31Z"), RssDates.parse("Sat, 07 Sep 2002 09:42:31 EDT"));
+		assertEquals(millis("2002-09-07T17:42:31Z"), RssDates.parse("Sat, 07 Sep 2002 09:42:31 PST"));
+	}
+
+	@Test
+	public void acceptsLooseVariants() {
+		assertEquals(millis("2002-09-07T09:42:31Z"), RssDates.parse("07 Sep 2002 09:42:31 GMT")); // no day of week
+		assertEquals(millis("2002-09-07T09:42:31Z"), RssDates.parse("Sat, 7 Sep 2002 09:42:31 GMT")); // single digit day
+		assertEquals(millis("2002-09-07T09:42:00Z"), RssDates.parse("Sat, 07 Sep 2002 09:42 GMT")); // no seconds
+		assertEquals(millis("2002-09-07T09:42:31Z"), RssDates.parse("  Sat,  07  Sep 2002  09:42:31  GMT ")); // extra spaces
+		assertEquals(millis("2002-09-07T09:42:31Z"), RssDates.parse("sat, 07 sep 2002 09:42:31 GMT")); // left to the formatter
+	}
+
+	@Test
+	public void expandsTwoDigitYears() {
+		assertEquals(millis("2002-09-07T09:42:31Z"), RssDates.parse("Sat, 07 Sep 02 09:42:31 GMT"));
+		assertEquals(millis("1999-09-07T09:42:31Z"), RssDates.parse("Tue, 07 Sep 99 09:42:31 GMT"));
+	}
+
+	@Test
+	public void clampsLeapSeconds() {
+		assertEquals(millis("2016-12-31T23:59:59Z"), RssDates.parse("Sat, 31 Dec 2016 23:59:60 +0000"));
+	}
+
+	@Test
+	public void rejectsMalformedDates() {
+		assertEquals(-1L, RssDates.parse(null));
+		assertEquals(-1L, RssDates.parse(""));
+		assertEquals(-1L, RssDates.parse("yesterday"));
+		assertEquals(-1L, RssDates.parse("2002-09-07T09:42:31Z")); // ISO, not RFC-822
+		assertEquals(-1L, RssDates.parse("Thu, 31 Feb 2002 09:42:31 GMT"));
+		assertEquals(-1L, RssDates.parse("Sat, 07 Sep 2002 24:42:31 GMT"));
+		assertEquals(-1L, RssDates.parse("Sat, 07 Sep 2002 09:42:31 XYZ"));
+	}
+
+	@Test
+	public void rejectsOtherShapesInFastPath() {
+		assertEquals(Long.MIN_VALUE, RssDates.parseFast("Sat, 07 Foo 2002 09:42:31 GMT"));
+		assertEquals(Long.MIN_VALUE, RssDates.parseFast("Sat, 07 Sep 2002 9:42:31 GMT"));
+		assertEquals(Long.MIN_VALUE, RssDates.parseFast("Sat, 07 Sep 2002"));
+		assertEquals(Long.MIN_VALUE, RssDates.parseFast("Sat, 07 Sep 2002 09:42:31 +00"));
+	}
+
+	@Test
+	public void fastPathAgreesWithFormatter() {
+		final Random random = new Random(42L);
+		for (int run = 0; run < 10000; run++) {
+			final long epochSecond = (long) (random.nextDouble() * 4_000_000_000L);
+			final ZoneOffset offset = ZoneOffset.ofTotalSeconds((random.nextInt(27) - 12) * 3600 + random.nextInt(2) * 1800);
+			final String value = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), offset));
+
+			assertEquals(value, epochSecond * 1000L, RssDates.parseFast(value));
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.wilke.feed.rss;
+
+import com.wilke.feed.rss.RssFeed.RssChannel;
+import com.wilke.feed.rss.RssFeed.RssItem;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RssMergerTest {
+
+	private static RssItem item(final String guid, final String link, final int day) {
+		final RssItem item = new RssItem();
+		item.guid = guid;
+		item.link = link;
+		item.pubDate = day > 0 ? String.format("%02d Sep 2002 09:42:31 GMT", day) : null;
+		return item;
+	}
+
+	private static RssFeed feed(final RssItem... items) {
+		final RssFeed feed = new RssFeed();
+		feed.channel = new RssChannel();
+		feed.channel.items.addAll(Arrays.asList(items));
+		return feed;
+	}
+
+	private static List<String> guids(final List<RssItem> items) {
+		final List<String> guids = new ArrayList<>();
+		for (final RssItem item : items)
+			guids.add(item.guid != null ? item.guid : item.link);
+		return guids;
+	}
+
+	private static List<String> links(final List<RssItem> items) {
+		final List<String> links = new ArrayList<>();
+		for (final RssItem item : items)
+			links.add(item.link);
+		return links;
+	}
+
+	@Test
+	public void ordersNewestFirst() {
+		final List<RssItem> merged = RssMerger.merge(Arrays.asList(
+				feed(item("a", null, 1), item("c", null, 3)),
+				feed(item("b", null, 2), item("d", null, 4))), 0);
+
+		assertEquals(Arrays.asList("d", "c", "b", "a"), guids(merged));
+	}
+
+	@Test
+	public void dropsDuplicatesByGuidOrLink() {
+		final List<RssItem> merged = RssMerger.merge(Arrays.asList(
+				feed(item("a", "http://x/1", 1), item(null, "http://x/2", 2)),
+				feed(item("a", "http://y/1", 1), item(null, "http://x/2", 2), item(null, null, 3), item(null, null, 3))), 0);
+
+		assertEquals(4, merged.size()); // items without guid and link are never duplicates
+		assertEquals(Arrays.asList("http://x/2", "a"), guids(merged).subList(2, 4));
+	}
+
+	@Test
+	public void keepsNewestUpToLimit() {
+		final List<RssItem> merged = RssMerger.merge(Arrays.asList(
+				feed(item("a", null, 1), item("e", null, 5), item("c", null, 3)),
+				feed(item("d", null, 4), item("b", null, 2))), 3);
+
+		assertEquals(Arrays.asList("e", "d", "c"), guids(merged));
+	}
+
+	@Test
+	public void ordersEqualDatesByGuidRegardlessOfFeedOrder() {
+		final RssFeed first = feed(item("b", null, 1), item("a", null, 1));
+		final RssFeed second = feed(item("c", null, 1));
+
+		final List<String> expected = Arrays.asList("a", "b", "c");
+		assertEquals(expected, guids(RssMerger.merge(Arrays.asList(first, second), 0)));
+		assertEquals(expected, guids(RssMerger.merge(Arrays.asList(second, first), 0)));
+		assertEquals(Arrays.asList("a", "b"), guids(RssMerger.merge(Arrays.asList(second, first), 2)));
+	}
+
+	@Test
+	public void keepsTheSameCopyOfDuplicatesRegardlessOfFeedOrder() {
+		final RssFeed first = feed(item("a", "http://x/old", 1), item("b", "http://x/b", 2), item(null, "http://x/c", 3));
+		final RssFeed second = feed(item("a", "http://y/new", 2), item("b", "http://a/b", 2), item(null, "http://x/c", 0));
+
+		for (final List<RssFeed> feeds : Arrays.asList(Arrays.asList(first, second), Arrays.asList(second, first))) {
+			final List<RssItem> merged = RssMerger.merge(feeds, 0);
+
+			assertEquals(Arrays.asList("http://x/c", "http://y/new", "http://a/b"), links(merged)); // newest, then lowest link
+			assertEquals("03 Sep 2002 09:42:31 GMT", merged.get(0).pubDate);
+		}
+	}
+
+	@Test
+	public void putsUndatedItemsLast() {
+		final List<RssItem> merged = RssMerger.merge(Collections.singletonList(
+				feed(item("undated", null, 0), item("a", null, 1))), 0);
+
+		assertEquals(Arrays.asList("a", "undated"), guids(merged));
+	}
+
+	@Test
+	public void skipsFeedsWithoutChannel() {
+		assertTrue(RssMerger.merge(Collections.singletonList(new RssFeed()), 0).isEmpty());
+		assertEquals(1, RssMerger.merge(Arrays.asList(new RssFeed(), feed(item("a", null, 1))), 0).size());
+	}
+}
@@ -0,0 +1,99 @@
+package com.wilke.feed.rss;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RssParserTest {
+
+	private static List<int[]> ranges(final String document) {
+		return RssParser.itemRanges(document.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void locatesItemsAndDescriptions() {
+		final String document = "<rss><channel><description>channel</description>"
+				+ "<item><title>a</title><description>first</description></item>"
+				+ "<item><title>b</title></item>"
+				+ "</channel></rss>";
+		final List<int[]> ranges = ranges(document);
+
+		assertEquals(2, ranges.size());
+		final int[] first = ranges.get(0);
+		assertEquals("<item><title>a</title><description>first</description></item>", document.substring(first[0], first[1]));
+		assertEquals("<description>first</description>", document.substring(first[2], first[3]));
+		assertEquals("</item>", document.substring(first[4], first[1]));
+
+		final int[] second = ranges.get(1);
+		assertEquals("<item><title>b</title></item>", document.substring(second[0], second[1]));
+		assertEquals(-1, second[2]);
+		assertEquals(-1, second[3]);
+	}
+
+	@Test
+	public void skipsTagsWithinCdata() {
+		final String document = "<channel>"
+				+ "<item><description><![CDATA[<item>quoted</item> </description>]]></description></item>"
+				+ "<item><title><![CDATA[]]></title></item>"
+				+ "</channel>";
+		final List<int[]> ranges = ranges(document);
+
+		assertEquals(2, ranges.size());
+		final int[] first = ranges.get(0);
+		assertEquals("<description><![CDATA[<item>quoted</item> </description>]]></description>", document.substring(first[2], first[3]));
+		assertEquals("<item><title><![CDATA[]]></title></item>", document.substring(ranges.get(1)[0], ranges.get(1)[1]));
+	}
+
+	@Test
+	public void skipsCommentsAndProcessingInstructions() {
+		final String document = "<?xml version=\"1.0\"?><channel><!-- <item> -->"
+				+ "<item><?pi <item>?><title>a</title></item>"
+				+ "</channel>";
+		final List<int[]> ranges = ranges(document);
+
+		assertEquals(1, ranges.size());
+		assertEquals("<item><?pi <item>?><title>a</title></item>", document.substring(ranges.get(0)[0], ranges.get(0)[1]));
+	}
+
+	@Test
+	public void ignoresEscapedTagsAndOtherNames() {
+		final String document = "<channel><items/>"
+				+ "<item><title>&lt;item&gt;</title><description-extra/><itemized>x</itemized></item>"
+				+ "</channel>";
+		final List<int[]> ranges = ranges(document);
+
+		assertEquals(1, ranges.size());
+		assertEquals(-1, ranges.get(0)[2]);
+	}
+
+	@Test
+	public void locatesEmptyDescriptions() {
+		final String document = "<item><description/></item><item><description \n/></item>";
+		final List<int[]> ranges = ranges(document);
+
+		assertEquals(2, ranges.size());
+		assertEquals("<description/>", document.substring(ranges.get(0)[2], ranges.get(0)[3]));
+		assertEquals("<description \n/>", document.substring(ranges.get(1)[2], ranges.get(1)[3]));
+	}
+
+	@Test
+	public void rejectsNestedItems() {
+		assertNull(ranges("<item><title>a</title><item><title>b</title></item></item>"));
+	}
+
+	@Test
+	public void rejectsUnclosedDescriptions() {
+		assertNull(ranges("<item><description>a</item>"));
+	}
+
+	@Test
+	public void cutsOffTruncatedDocuments() {
+		assertEquals(1, ranges("<item><title>a</title></item><item><title>b</ti").size());
+		assertEquals(1, ranges("<item><title>a</title></item><item><description><![CDATA[b").size());
+		assertEquals(0, ranges("<item><title>a</title></ite").size());
+	}
+}
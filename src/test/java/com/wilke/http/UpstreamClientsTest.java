@@ -0,0 +1,91 @@
+package com.wilke.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class UpstreamClientsTest {
+
+	private static final int READ_TIMEOUT = 500; // milliseconds
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private HttpServer server;
+	private String url;
+
+	@Before
+	public void startServer() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		// announces a body, sends its first bytes and stalls
+		this.server.createContext("/stall", exchange -> {
+			final byte[] start = "<rss><channel>".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, 1000L);
+			final OutputStream body = exchange.getResponseBody();
+			body.write(start);
+			body.flush();
+			try {
+				this.release.await(30, TimeUnit.SECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.close();
+		});
+		this.server.start();
+		this.url = "http://" + this.server.getAddress().getHostString() + ":" + this.server.getAddress().getPort() + "/stall";
+	}
+
+	@After
+	public void stopServer() {
+		this.release.countDown();
+		this.server.stop(0);
+	}
+
+	@Test
+	public void urlConnectionTimesOutStalledBody() throws IOException {
+		try (UpstreamClient client = UpstreamClients.create(UpstreamClients.URL_CONNECTION, 1000, READ_TIMEOUT, 2)) {
+			assertTimesOut(client);
+		}
+	}
+
+	@Test
+	public void httpClientTimesOutStalledBody() throws IOException {
+		try (UpstreamClient client = UpstreamClients.create(UpstreamClients.HTTP_CLIENT, 1000, READ_TIMEOUT, 2)) {
+			assumeTrue("Java 11+ only", "HttpClientUpstreamClient".equals(client.getClass().getSimpleName()));
+			assertTimesOut(client);
+		}
+	}
+
+	private void assertTimesOut(final UpstreamClient client) throws IOException {
+		try (UpstreamResponse response = client.get(new UpstreamRequest(this.url))) {
+			assertEquals(200, response.status());
+
+			final long start = System.nanoTime();
+			final InputStream body = response.body();
+			final byte[] buffer = new byte[1024];
+			try {
+				while (body.read(buffer) >= 0) {
+					// drain
+				}
+				fail("read of a stalled body returned");
+			} catch (final SocketTimeoutException e) {
+				final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				assertTrue("timed out after " + elapsed + " ms", elapsed < READ_TIMEOUT * 4L);
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.wilke.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashSetTest {
+
+	@Test
+	public void addsOnce() {
+		final LongHashSet set = new LongHashSet(4);
+		assertTrue(set.add(42L));
+		assertFalse(set.add(42L));
+		assertTrue(set.contains(42L));
+		assertFalse(set.contains(43L));
+		assertEquals(1, set.size());
+	}
+
+	@Test
+	public void keepsZeroAside() {
+		final LongHashSet set = new LongHashSet(4);
+		assertFalse(set.contains(0L));
+		assertTrue(set.add(0L));
+		assertFalse(set.add(0L));
+		assertTrue(set.contains(0L));
+		assertEquals(1, set.size());
+	}
+
+	@Test
+	public void growsBeyondExpectedSize() {
+		final LongHashSet set = new LongHashSet(1);
+		final Random random = new Random(42L);
+		final Set<Long> expected = new HashSet<>();
+		for (int idx = 0; idx < 100_000; idx++) {
+			final long value = random.nextInt(50_000) - 25_000L;
+			assertEquals(expected.add(value), set.add(value));
+		}
+
+		assertEquals(expected.size(), set.size());
+		for (long value = -25_000L; value < 25_000L; value++)
+			assertEquals(expected.contains(value), set.contains(value));
+	}
+
+	@Test
+	public void probesPastCollisions() {
+		// values landing in the same slot of the initial 16 slots
+		final List<Long> colliding = new ArrayList<>();
+		for (long value = 1L; colliding.size() < 8; value++)
+			if ((LongHashSet.mix(value) & 15) == 3)
+				colliding.add(value);
+
+		final LongHashSet set = new LongHashSet(8);
+		for (final long value : colliding)
+			assertTrue(set.add(value));
+		for (final long value : colliding) {
+			assertFalse(set.add(value));
+			assertTrue(set.contains(value));
+		}
+		assertFalse(set.contains(colliding.get(colliding.size() - 1) + 1_000_000L));
+
+		// still found after rehashing into more slots
+		for (long value = -100L; value < 0L; value++)
+			set.add(value);
+		for (final long value : colliding)
+			assertTrue(set.contains(value));
+		assertEquals(colliding.size() + 100, set.size());
+	}
+
+	@Test
+	public void hashesEveryCharacter() {
+		assertEquals(0xCBF29CE484222325L, LongHashSet.hash(""));
+		assertEquals(LongHashSet.hash("guid-1"), LongHashSet.hash(new StringBuilder("guid-1")));
+		assertNotEquals(LongHashSet.hash("ab"), LongHashSet.hash("ba"));
+		assertNotEquals(LongHashSet.hash("\u0100"), LongHashSet.hash("\u0001")); // high byte counts
+		assertNotEquals(LongHashSet.hash("a"), LongHashSet.hash("a\u0000"));
+	}
+}